@@ -0,0 +1,48 @@
+package apryraz.eworld;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+
+/**
+ * Creation of the solver of an agent with Gamma (buildGamma), with the
+ * template of the dimension already cached.
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BuildGammaBenchmark {
+
+    @Param({"5", "50", "200", "500"})
+    int worldDim;
+
+    EnvelopeFinder agent;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AgentLog.setLevel(AgentLog.Level.SILENT);
+        agent = new EnvelopeFinder(worldDim);
+    }
+
+    @Benchmark
+    public ISolver buildGamma() throws ContradictionException, IOException {
+        return agent.buildGammaSolver();
+    }
+}
@@ -0,0 +1,56 @@
+package apryraz.eworld;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sat4j.specs.ContradictionException;
+
+/**
+ * Generation of the clauses of Gamma into a template, the path used the
+ * first time a world dimension is needed. The builder keeps its arena
+ * between invocations, so with -prof gc the allocation per operation
+ * (gc.alloc.rate.norm) is the allocation of the clause generation itself,
+ * and it should be zero bytes for any dimension.
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GammaGenerationBenchmark {
+
+    @Param({"5", "50", "200"})
+    int worldDim;
+
+    EnvelopeFinder generator;
+    GammaTemplate.Builder builder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        AgentLog.setLevel(AgentLog.Level.SILENT);
+        generator = new EnvelopeFinder(worldDim, true);
+        builder = new GammaTemplate.Builder(worldDim);
+    }
+
+    /**
+     * Generate all the clauses of Gamma, and return the number of clauses
+     **/
+    @Benchmark
+    public int generateGamma() throws ContradictionException {
+        builder.reset();
+        generator.generateGamma(builder);
+        return builder.numClauses;
+    }
+}
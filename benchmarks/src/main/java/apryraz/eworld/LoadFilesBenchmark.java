@@ -0,0 +1,109 @@
+package apryraz.eworld;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Load time of the envelopes and steps files of synthetic worlds: the
+ * memory mapped parser (PositionFile) against the previous loaders, that
+ * used Scanner and String.split for every position, and the binary world
+ * file with the same envelopes and steps.
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class LoadFilesBenchmark {
+
+    @Param({"10000", "1000000"})
+    int numPositions;
+
+    SyntheticWorld world;
+    File worldFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AgentLog.setLevel(AgentLog.Level.SILENT);
+        world = new SyntheticWorld(1000, numPositions, numPositions, 42);
+        worldFile = File.createTempFile("world", ".ewb");
+        worldFile.deleteOnExit();
+        WorldFile.fromText(1000, world.envelopesFile.getPath(), world.stepsFile.getPath(), null)
+                 .save(worldFile.getPath());
+    }
+
+    @Benchmark
+    public int[] mappedEnvelopes() throws IOException {
+        return PositionFile.readPairs(world.envelopesFile.getPath());
+    }
+
+    @Benchmark
+    public int[] mappedSteps() throws IOException {
+        return PositionFile.readPairs(world.stepsFile.getPath(), numPositions);
+    }
+
+    @Benchmark
+    public EnvelopeWorldEnv mappedEnvironment() throws IOException {
+        return world.newEnvironment();
+    }
+
+    @Benchmark
+    public WorldFile binaryWorld() throws IOException {
+        return WorldFile.load(worldFile.getPath());
+    }
+
+    /**
+     * Previous EnvelopeWorldEnv.loadEnvelopesLocations
+     **/
+    @Benchmark
+    public ArrayList<Position> splitEnvelopes() throws IOException {
+        ArrayList<Position> envelopeLoc = new ArrayList<>();
+        Scanner myReader = new Scanner(new File(world.envelopesFile.getPath()));
+        while (myReader.hasNextLine()) {
+            String data = myReader.nextLine();
+            String[] envelopes = data.split(" ");
+            for (int i = 0; i < envelopes.length; i++) {
+                String[] cord = envelopes[i].split(",");
+                envelopeLoc.add(new Position(Integer.parseInt(cord[0]), Integer.parseInt(cord[1])));
+            }
+        }
+        myReader.close();
+        return envelopeLoc;
+    }
+
+    /**
+     * Previous EnvelopeFinder.loadListOfSteps
+     **/
+    @Benchmark
+    public ArrayList<Position> splitSteps() throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(world.stepsFile));
+        String steps = br.readLine();
+        br.close();
+        String[] stepsList = steps.split(" ");
+        ArrayList<Position> listOfSteps = new ArrayList<>(numPositions);
+        for (int i = 0; i < numPositions; i++) {
+            String[] coords = stepsList[i].split(",");
+            listOfSteps.add(new Position(Integer.parseInt(coords[0]), Integer.parseInt(coords[1])));
+        }
+        return listOfSteps;
+    }
+}
@@ -0,0 +1,58 @@
+package apryraz.eworld;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Detector readings of the environment (metalSensorReading) at random
+ * positions of synthetic worlds.
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetalSensorBenchmark {
+
+    @Param({"5", "50", "500"})
+    int worldDim;
+
+    @Param({"3", "300", "30000"})
+    int numEnvelopes;
+
+    EnvelopeWorldEnv environment;
+    int[] positions;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        AgentLog.setLevel(AgentLog.Level.SILENT);
+        environment = new SyntheticWorld(worldDim, numEnvelopes, 1, 42).newEnvironment();
+        Random random = new Random(7);
+        positions = new int[2048];
+        for (int k = 0; k < positions.length; k++) {
+            positions[k] = 1 + random.nextInt(worldDim);
+        }
+    }
+
+    @Benchmark
+    public int metalSensorReading() {
+        next = (next + 2) & (positions.length - 1);
+        return environment.metalSensorReading(positions[next], positions[next + 1]);
+    }
+}
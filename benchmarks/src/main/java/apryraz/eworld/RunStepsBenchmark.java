@@ -0,0 +1,74 @@
+package apryraz.eworld;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * Full runs of the agent on synthetic worlds: all the steps of the walk with
+ * runNextStep, for every inference strategy. The agent is created before
+ * every run, so its creation is not measured. Big worlds with the sequential
+ * strategy are slow, use -p worldDim=500 -p strategy=backbone,propagation
+ * to measure them. Long walks can be compared with and without compaction
+ * of the formula with -p compactionInterval=0,100.
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RunStepsBenchmark {
+
+    @Param({"5", "50", "200"})
+    int worldDim;
+
+    @Param({"3", "30"})
+    int numEnvelopes;
+
+    @Param({"10", "100"})
+    int numSteps;
+
+    @Param({"sequential", "backbone", "propagation", "lazy", "tiled"})
+    String strategy;
+
+    @Param({"0"})
+    int compactionInterval;
+
+    SyntheticWorld world;
+    EnvelopeFinder agent;
+
+    @Setup(Level.Trial)
+    public void setUpWorld() throws IOException {
+        AgentLog.setLevel(AgentLog.Level.SILENT);
+        world = new SyntheticWorld(worldDim, numEnvelopes, numSteps, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpAgent() throws IOException {
+        agent = world.newAgent(strategy);
+        agent.setCompactionInterval(compactionInterval);
+    }
+
+    @Benchmark
+    public EFState runSteps() throws IOException, ContradictionException, TimeoutException {
+        for (int s = 0; s < numSteps; s++) {
+            agent.runNextStep();
+        }
+        return agent.getState();
+    }
+}
@@ -0,0 +1,71 @@
+package apryraz.eworld;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * Latency of one step of the agent (runNextStep) for every solver backend,
+ * with the sequential inference. When the walk of the synthetic world ends
+ * a new agent is created, out of the measured time. Other SAT4J
+ * configurations can be compared with -p backend=Default,MiniSATHeap,...
+ * (the names of SolverFactory.solverNames()).
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolverBackendBenchmark {
+
+    @Param({"5", "20", "50"})
+    int worldDim;
+
+    @Param({"3"})
+    int numEnvelopes;
+
+    @Param({"200"})
+    int numSteps;
+
+    @Param({"Default", "Light", "Glucose", "propagation"})
+    String backend;
+
+    SyntheticWorld world;
+    SolverBackend solverBackend;
+    EnvelopeFinder agent;
+
+    @Setup(Level.Trial)
+    public void setUpWorld() throws IOException {
+        AgentLog.setLevel(AgentLog.Level.SILENT);
+        world = new SyntheticWorld(worldDim, numEnvelopes, numSteps, 42);
+        solverBackend = SolverBackend.forName(backend);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpAgent() throws IOException {
+        if (agent == null || !agent.hasNextStep()) {
+            agent = world.newAgent("sequential", solverBackend);
+        }
+    }
+
+    @Benchmark
+    public EFState runNextStep() throws IOException, ContradictionException, TimeoutException {
+        agent.runNextStep();
+        return agent.getState();
+    }
+}
@@ -0,0 +1,95 @@
+package apryraz.eworld;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * The phases of a step of the agent measured alone, with an agent that has
+ * already run half of the steps of a synthetic world:
+ * performInferenceQuestions and processDetectorSensorAnswer. The agent
+ * skips the readings it already has, so before every call to
+ * processDetectorSensorAnswer the reading of the measured position is
+ * forgotten, and every call adds the clauses of the detection answer again
+ * (the formula and the clause log of the agent grow during an iteration).
+ **/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StepPhasesBenchmark {
+
+    @Param({"5", "50", "200"})
+    int worldDim;
+
+    @Param({"3", "30"})
+    int numEnvelopes;
+
+    @Param({"20"})
+    int numSteps;
+
+    @Param({"sequential", "backbone", "propagation"})
+    String strategy;
+
+    SyntheticWorld world;
+    EnvelopeFinder agent;
+    WorldMessage detection;
+    int detectionCell;
+
+    @Setup(Level.Trial)
+    public void setUpWorld() throws IOException {
+        AgentLog.setLevel(AgentLog.Level.SILENT);
+        world = new SyntheticWorld(worldDim, numEnvelopes, numSteps, 42);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpAgent() throws IOException, ContradictionException, TimeoutException {
+        agent = world.newAgent(strategy);
+        for (int s = 0; s < numSteps / 2; s++) {
+            agent.runNextStep();
+        }
+        detection = agent.sendDetectsAt();
+        detectionCell = (detection.y - 1) * worldDim + (detection.x - 1);
+    }
+
+    /**
+     * Forgets the reading of the measured position before every call to
+     * processDetectorSensorAnswer, and only before those calls
+     **/
+    @State(Scope.Thread)
+    public static class ForgottenReading {
+        @Setup(Level.Invocation)
+        public void forgetReading(StepPhasesBenchmark phases) {
+            phases.agent.detectorReadings[phases.detectionCell] = -1;
+        }
+    }
+
+    @Benchmark
+    public EFState performInferenceQuestions() throws IOException, ContradictionException, TimeoutException {
+        agent.performInferenceQuestions();
+        agent.futureToPast.clear();
+        return agent.getState();
+    }
+
+    @Benchmark
+    public int processDetectorSensorAnswer(ForgottenReading forgotten) throws IOException, ContradictionException, TimeoutException {
+        agent.processDetectorSensorAnswer(detection);
+        return agent.detectorReadings[detectionCell];
+    }
+}
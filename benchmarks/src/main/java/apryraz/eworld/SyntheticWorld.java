@@ -0,0 +1,112 @@
+package apryraz.eworld;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Generator of synthetic worlds for the benchmarks: an envelopes file with
+ * random envelope positions and a steps file with a random walk of the
+ * agent, in the same text formats than the files in tests/. The same seed
+ * always gives the same world.
+ **/
+public class SyntheticWorld {
+
+    /**
+     * Dimension of the world, files with the envelopes and the steps,
+     * and number of steps in the steps file
+     **/
+    public final int worldDim, numSteps;
+    public final File envelopesFile, stepsFile;
+
+    /**
+     * Generate a world and write its files in a temporary directory
+     *
+     * @param worldDim dimension of the world
+     * @param numEnvelopes number of envelopes (positions can repeat)
+     * @param numSteps number of steps of the agent walk
+     * @param seed seed of the random generator
+     * @throws IOException if the files can not be written
+     **/
+    public SyntheticWorld(int worldDim, int numEnvelopes, int numSteps, long seed) throws IOException {
+        this.worldDim = worldDim;
+        this.numSteps = numSteps;
+        Random random = new Random(seed);
+        envelopesFile = File.createTempFile("envelopes", ".txt");
+        envelopesFile.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(envelopesFile)) {
+            StringBuilder line = new StringBuilder();
+            for (int e = 0; e < numEnvelopes; e++) {
+                if (e > 0) {
+                    line.append(' ');
+                }
+                line.append(1 + random.nextInt(worldDim)).append(',').append(1 + random.nextInt(worldDim));
+            }
+            out.println(line);
+        }
+        stepsFile = File.createTempFile("steps", ".txt");
+        stepsFile.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(stepsFile)) {
+            StringBuilder line = new StringBuilder();
+            int x = 1 + random.nextInt(worldDim), y = 1 + random.nextInt(worldDim);
+            for (int s = 0; s < numSteps; s++) {
+                if (s > 0) {
+                    line.append(' ');
+                }
+                line.append(x).append(',').append(y);
+                // Random walk to a neighbour position inside the world
+                x = Math.max(1, Math.min(worldDim, x + random.nextInt(3) - 1));
+                y = Math.max(1, Math.min(worldDim, y + random.nextInt(3) - 1));
+            }
+            out.println(line);
+        }
+    }
+
+    /**
+     * Create the environment of this world
+     *
+     * @return the environment object with the envelopes loaded
+     * @throws IOException if the file of envelopes can not be read
+     **/
+    public EnvelopeWorldEnv newEnvironment() throws IOException {
+        return new EnvelopeWorldEnv(worldDim, envelopesFile.getPath());
+    }
+
+    /**
+     * Create an agent for this world, with its environment and steps loaded
+     *
+     * @param strategy name of the inference: sequential, backbone, propagation, lazy
+     *                 (sequential with lazy detector variables) or tiled (tiles
+     *                 of 32 x 32 positions, without the formula of the whole world)
+     * @return the agent ready to run the steps
+     * @throws IOException if the files of the world can not be read
+     **/
+    public EnvelopeFinder newAgent(String strategy) throws IOException {
+        return newAgent(strategy, strategy.equals("propagation") ? SolverBackend.PROPAGATION : SolverBackend.DEFAULT);
+    }
+
+    /**
+     * Create an agent for this world with a solver backend, with its
+     * environment and steps loaded
+     *
+     * @param strategy name of the inference, as in newAgent(String)
+     * @param backend backend that stores the formula of the agent
+     * @return the agent ready to run the steps
+     * @throws IOException if the files of the world can not be read
+     **/
+    public EnvelopeFinder newAgent(String strategy, SolverBackend backend) throws IOException {
+        EnvelopeFinder agent;
+        if (strategy.equals("tiled")) {
+            agent = new EnvelopeFinder(worldDim, backend, new TiledInference(32));
+        } else {
+            agent = new EnvelopeFinder(worldDim, backend, strategy.equals("lazy"));
+        }
+        if (strategy.equals("backbone")) {
+            agent.setInferenceStrategy(new BackboneInference());
+        }
+        agent.setEnvironment(newEnvironment());
+        agent.loadListOfSteps(numSteps, stepsFile.getPath());
+        return agent;
+    }
+}
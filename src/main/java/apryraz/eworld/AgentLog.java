@@ -0,0 +1,249 @@
+package apryraz.eworld;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Output of the agent and the environment. All the messages go through
+ * this class, that selects how much is written with an output level:
+ *
+ *   - SILENT: only error messages, always written to System.err
+ *   - SUMMARY: errors, the start of the agents and the final result of a run
+ *   - TRACE: every message, move, detection and state of every step (default)
+ *
+ * The output can also go through an asynchronous buffered sink, where the
+ * lines are queued and written to System.out in batches by a background
+ * thread, so the agent does not wait for the console. The level and the
+ * sink can be selected with the system properties eworld.log
+ * (silent, summary or trace) and eworld.log.async (true or false).
+ **/
+public class AgentLog {
+
+    /**
+     * Output levels, from less to more output
+     **/
+    public enum Level { SILENT, SUMMARY, TRACE }
+
+    static volatile Level level = parseLevel(System.getProperty("eworld.log"));
+    static AsyncSink sink;
+
+    static {
+        if (Boolean.getBoolean("eworld.log.async")) {
+            setAsync(true);
+        }
+    }
+
+    /**
+     * Read an output level from its name, in any case. An unknown name
+     * gives a warning and the default level (trace), so a mistyped
+     * property does not stop the program.
+     *
+     * @param name name of the level, or null for the default level
+     * @return the output level
+     **/
+    static Level parseLevel(String name) {
+        if (name == null) {
+            return Level.TRACE;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            // The sink is not ready while the class is initialized
+            System.err.println("Unknown output level " + name + " in eworld.log, using trace");
+            return Level.TRACE;
+        }
+    }
+
+    /**
+     * Set the output level
+     *
+     * @param newLevel the new output level
+     **/
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * Get the current output level
+     *
+     * @return the output level
+     **/
+    public static Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Check if the messages of a level are written. Callers use it to avoid
+     * building messages that are not going to be written.
+     *
+     * @param messageLevel the level of the message
+     * @return true if the messages of that level are written
+     **/
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel != Level.SILENT && messageLevel.compareTo(level) <= 0;
+    }
+
+    /**
+     * Write a line of the step by step trace
+     **/
+    public static void trace(String line) {
+        if (isEnabled(Level.TRACE)) {
+            println(line);
+        }
+    }
+
+    /**
+     * Write a line of the summary of a run
+     **/
+    public static void summary(String line) {
+        if (isEnabled(Level.SUMMARY)) {
+            println(line);
+        }
+    }
+
+    /**
+     * Write an error line to System.err, at any level. The lines queued
+     * before it in the asynchronous sink are written first.
+     **/
+    public static void error(String line) {
+        flush();
+        System.err.println(line);
+    }
+
+    /**
+     * Write a line without checking the level, used when something
+     * is printed on purpose (printState, showMessage)
+     **/
+    public static void println(String line) {
+        AsyncSink asyncSink = sink;
+        if (asyncSink != null) {
+            asyncSink.add(line);
+        } else {
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Select the asynchronous buffered sink, or write directly to System.out
+     *
+     * @param async true to use the asynchronous sink
+     **/
+    public static synchronized void setAsync(boolean async) {
+        if (async && sink == null) {
+            sink = new AsyncSink();
+            Thread writer = new Thread(sink, "eworld-log");
+            writer.setDaemon(true);
+            writer.start();
+            FlushAtExit.register();
+        } else if (!async && sink != null) {
+            flush();
+            sink.stop();
+            sink = null;
+        }
+    }
+
+    /**
+     * Wait until all the lines queued in the asynchronous sink are written
+     **/
+    public static void flush() {
+        AsyncSink asyncSink = sink;
+        if (asyncSink != null) {
+            asyncSink.flush();
+        }
+    }
+
+    /**
+     * Holder of the shutdown hook that writes the lines left in the
+     * asynchronous sink. The hook is registered when the class is loaded,
+     * so only once, however many times the sink is selected again.
+     **/
+    private static class FlushAtExit {
+        static {
+            Runtime.getRuntime().addShutdownHook(new Thread(AgentLog::flush, "eworld-log-flush"));
+        }
+
+        static void register() {
+            // Loading the class registers the hook
+        }
+    }
+
+    /**
+     * Sink that writes the queued lines in batches from its own thread.
+     * After stop, the lines queued before it are still written and then the
+     * thread ends. flush does not wait for a thread that has ended.
+     **/
+    static class AsyncSink implements Runnable {
+        /**
+         * Marker queued by stop, compared by identity
+         **/
+        static final String STOP = new String("");
+        final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        long queued, written;
+        volatile boolean alive = true;
+
+        void add(String line) {
+            synchronized (this) {
+                queued++;
+            }
+            queue.add(line);
+        }
+
+        void stop() {
+            queue.add(STOP);
+        }
+
+        synchronized void flush() {
+            long target = queued;
+            while (written < target && alive) {
+                try {
+                    wait(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        public void run() {
+            List<String> batch = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            try {
+                boolean stopped = false;
+                while (!stopped) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
+                    text.setLength(0);
+                    int lines = 0;
+                    for (String line : batch) {
+                        if (line == STOP) {
+                            // The lines after the marker were queued after stop
+                            stopped = true;
+                            break;
+                        }
+                        text.append(line).append(System.lineSeparator());
+                        lines++;
+                    }
+                    PrintStream out = System.out;
+                    out.print(text);
+                    out.flush();
+                    synchronized (this) {
+                        written += lines;
+                        notifyAll();
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // flush stops waiting when the thread ends, for any reason
+                synchronized (this) {
+                    alive = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
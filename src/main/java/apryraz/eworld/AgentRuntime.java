@@ -0,0 +1,228 @@
+package apryraz.eworld;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runtime to host many agents and environments at the same time, where
+ * every agent and every environment runs in its own thread and they only
+ * talk through mailboxes. The agent sends its messages to the mailbox of
+ * the environment and waits for the answer in its own mailbox, so an
+ * environment can serve many agents.
+ *
+ * With a JVM that has virtual threads (Java 21 or newer) every agent and
+ * environment runs in a virtual thread, and an agent waiting for an answer
+ * does not block a platform thread. With older JVMs they run in platform
+ * threads of a cached pool, with the same behaviour.
+ **/
+public class AgentRuntime implements AutoCloseable {
+
+    /**
+     * Queue of messages of an agent or an environment
+     **/
+    static class Mailbox<T> {
+        final BlockingQueue<T> queue = new LinkedBlockingQueue<>();
+
+        void post(T message) {
+            queue.add(message);
+        }
+
+        T take() throws InterruptedException {
+            return queue.take();
+        }
+    }
+
+    /**
+     * Message sent to an environment, with the mailbox for the answer
+     **/
+    static class Request {
+        final WorldMessage msg;
+        final Mailbox<WorldMessage> replyTo;
+
+        Request(WorldMessage msg, Mailbox<WorldMessage> replyTo) {
+            this.msg = msg;
+            this.replyTo = replyTo;
+        }
+    }
+
+    /**
+     * Request that stops the thread of an environment
+     **/
+    static final Request STOP = new Request(WorldMessage.NONE, null);
+
+    /**
+     * Environment running in its own thread, answering the requests of its mailbox
+     **/
+    public static class EnvironmentActor {
+        final EnvelopeWorldEnv environment;
+        final Mailbox<Request> mailbox = new Mailbox<>();
+
+        EnvironmentActor(EnvelopeWorldEnv environment) {
+            this.environment = environment;
+        }
+
+        void serve() {
+            try {
+                for (Request request = mailbox.take(); request != STOP; request = mailbox.take()) {
+                    request.replyTo.post(environment.acceptMessage(request.msg));
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Create a channel for an agent, with its own mailbox for the answers.
+         * If the agent is interrupted while it waits for an answer, the
+         * channel throws IllegalStateException and the thread keeps its
+         * interrupted status.
+         *
+         * @return a channel that sends the messages to this environment
+         **/
+        public WorldChannel newChannel() {
+            Mailbox<WorldMessage> replies = new Mailbox<>();
+            return msg -> {
+                mailbox.post(new Request(msg, replies));
+                try {
+                    return replies.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for the answer to " + msg.type, ex);
+                }
+            };
+        }
+    }
+
+    /**
+     * Executor where the agents and environments run, and the agents and
+     * environments started, to stop them when the runtime is closed
+     **/
+    final ExecutorService executor;
+    final boolean virtualThreads;
+    final List<CompletableFuture<EFState>> agents = new ArrayList<>();
+    final List<EnvironmentActor> environments = new ArrayList<>();
+
+    /**
+     * Class constructor, with a virtual thread per agent and environment
+     * when the JVM supports them
+     **/
+    public AgentRuntime() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        virtualThreads = virtual != null;
+        executor = virtualThreads ? virtual : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Class constructor with the executor where the threads are run. It must
+     * be able to run all the agents and environments at the same time.
+     *
+     * @param executor the executor of the threads
+     **/
+    public AgentRuntime(ExecutorService executor) {
+        this.executor = executor;
+        virtualThreads = false;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor(), found by reflection so
+     * the project still compiles for Java 11
+     *
+     * @return the executor, or null if the JVM does not have virtual threads
+     **/
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if the agents run in virtual threads
+     *
+     * @return true if the runtime uses virtual threads
+     **/
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Start the thread of an environment
+     *
+     * @param environment the environment with its envelopes loaded
+     * @return the running environment, to connect agents to it
+     **/
+    public synchronized EnvironmentActor startEnvironment(EnvelopeWorldEnv environment) {
+        EnvironmentActor actor = new EnvironmentActor(environment);
+        environments.add(actor);
+        executor.execute(actor::serve);
+        return actor;
+    }
+
+    /**
+     * Start the thread of an agent, connected to a running environment,
+     * that performs the given number of steps. The steps must be already
+     * loaded into the agent.
+     *
+     * @param agent the agent
+     * @param environment the environment where the agent moves
+     * @param numSteps number of steps to perform
+     * @return future completed with the state of the agent after the steps,
+     *         or with the exception that stopped it
+     **/
+    public synchronized CompletableFuture<EFState> startAgent(EnvelopeFinder agent, EnvironmentActor environment, int numSteps) {
+        agent.EnvAgent = environment.environment;
+        agent.setChannel(environment.newChannel());
+        CompletableFuture<EFState> result = new CompletableFuture<>();
+        agents.add(result);
+        executor.execute(() -> {
+            try {
+                for (int step = 0; step < numSteps; step++) {
+                    agent.runNextStep();
+                }
+                result.complete(agent.getState());
+            } catch (Exception ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Wait for the agents to end their steps, then stop the environments
+     * and wait for all the threads to end. If the thread is interrupted
+     * while waiting, the threads of the runtime are interrupted too.
+     *
+     * @throws IllegalStateException if the thread is interrupted while
+     *                               waiting, with its interrupted status set
+     **/
+    public synchronized void close() {
+        try {
+            for (CompletableFuture<EFState> agent : agents) {
+                try {
+                    agent.get();
+                } catch (ExecutionException ex) {
+                    // The caller gets the exception from the future of the agent
+                }
+            }
+            agents.clear();
+            for (EnvironmentActor actor : environments) {
+                actor.mailbox.post(STOP);
+            }
+            environments.clear();
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while closing the agent runtime", ex);
+        }
+    }
+}
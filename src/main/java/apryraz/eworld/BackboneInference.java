@@ -0,0 +1,158 @@
+package apryraz.eworld;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.IVecInt;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * Inference that computes all the envelope future variables forced to false
+ * with few solver calls, instead of one call per position.
+ *
+ * Every model found by the solver tells us that all the future variables
+ * true in it can be true, so these positions are not asked again. The rest
+ * of candidates are asked in groups, assuming all of them true at the same
+ * time: if the group is satisfiable no position of the group is forced to
+ * false, and if it is not, the group is split in two halves until single
+ * positions are reached. With few envelopes most groups are satisfiable,
+ * so the number of calls is close to the number of new discarded positions
+ * times the logarithm of the world size. The positions discarded in previous
+ * steps are not asked again, as the formula only grows between steps.
+ **/
+public class BackboneInference implements InferenceStrategy {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte POSSIBLE = 1;
+    private static final byte DISCARDED = 2;
+
+    /**
+     * Find the positions without envelope using models and group questions.
+     *
+     * @param finder the agent, with its solver and current state
+     * @return the list of positions without envelope
+     * @throws TimeoutException if solver's isSatisfiable operation spends more
+     *                          time computing than a certain timeout.
+     **/
+    public List<Position> findNoEnvelopePositions(EnvelopeFinder finder) throws TimeoutException {
+        List<Position> noEnvelope = new ArrayList<>();
+        int[] candidates = new int[finder.WorldLinealDim];
+        int numCandidates = 0;
+        for (int i = 1; i <= finder.WorldDim; i++) {
+            for (int j = 1; j <= finder.WorldDim; j++) {
+                if (!finder.isInferenceCandidate(i, j)) {
+                    continue;
+                }
+                if (finder.efstate.isCrossed(i, j)) {
+                    // Already proven in a previous step, and the formula only grows
+                    noEnvelope.add(new Position(i, j));
+                } else {
+                    candidates[numCandidates++] = finder.coordToLineal(i, j, finder.EnvelopeFutureOffset);
+                }
+            }
+        }
+        // status of every candidate: UNKNOWN, POSSIBLE (true in some model) or DISCARDED
+        byte[] status = new byte[numCandidates];
+        if (!finder.querySolver(new VecInt())) {
+            // The formula is unsatisfiable, so every future variable is false
+            for (int k = 0; k < numCandidates; k++) {
+                noEnvelope.add(toPosition(finder, candidates[k]));
+            }
+            return noEnvelope;
+        }
+        markModel(finder, candidates, status);
+        checkGroup(finder, candidates, status, 0, numCandidates);
+        for (int k = 0; k < numCandidates; k++) {
+            if (status[k] == DISCARDED) {
+                noEnvelope.add(toPosition(finder, candidates[k]));
+            }
+        }
+        return noEnvelope;
+    }
+
+    /**
+     * Check the candidates in [from,to) not yet seen true in a model,
+     * assuming all of them true at the same time. When the formula becomes
+     * unsatisfiable and the solver explains it with a single candidate,
+     * that candidate is discarded and the rest of the group asked again.
+     * Otherwise the group is split in two halves.
+     *
+     * @param finder the agent, with its solver
+     * @param candidates the future variables to check
+     * @param status the current status of every candidate
+     * @param from first index of the group
+     * @param to last index (excluded) of the group
+     * @throws TimeoutException if solver's isSatisfiable operation spends more
+     *                          time computing than a certain timeout.
+     **/
+    private void checkGroup(EnvelopeFinder finder, int[] candidates, byte[] status,
+                            int from, int to) throws TimeoutException {
+        VecInt group = new VecInt();
+        while (true) {
+            group.clear();
+            int last = -1;
+            for (int k = from; k < to; k++) {
+                if (status[k] == UNKNOWN) {
+                    group.push(candidates[k]);
+                    last = k;
+                }
+            }
+            if (group.isEmpty()) {
+                return;
+            }
+            if (finder.querySolver(group)) {
+                markModel(finder, candidates, status);
+                return;
+            }
+            if (group.size() == 1) {
+                status[last] = DISCARDED;
+                return;
+            }
+            IVecInt explanation = finder.unsatExplanation();
+            if (explanation == null || explanation.size() != 1) {
+                break;
+            }
+            int k = indexOf(candidates, from, to, explanation.get(0));
+            if (k < 0 || status[k] != UNKNOWN) {
+                break;
+            }
+            status[k] = DISCARDED;
+        }
+        int middle = (from + to) / 2;
+        checkGroup(finder, candidates, status, from, middle);
+        checkGroup(finder, candidates, status, middle, to);
+    }
+
+    /**
+     * Mark as possible all the candidates that are true in the last model
+     * found by the solver.
+     **/
+    private void markModel(EnvelopeFinder finder, int[] candidates, byte[] status) {
+        for (int k = 0; k < status.length; k++) {
+            if (status[k] == UNKNOWN && finder.modelValue(candidates[k])) {
+                status[k] = POSSIBLE;
+            }
+        }
+    }
+
+    /**
+     * Find the index of a variable in the candidates [from,to), or -1.
+     **/
+    private int indexOf(int[] candidates, int from, int to, int var) {
+        for (int k = from; k < to; k++) {
+            if (candidates[k] == var) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the position of a future envelope variable.
+     **/
+    private Position toPosition(EnvelopeFinder finder, int futureVar) {
+        int[] coords = finder.linealToCoord(futureVar, finder.EnvelopeFutureOffset);
+        return new Position(coords[0], coords[1]);
+    }
+}
@@ -0,0 +1,244 @@
+package apryraz.eworld;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runner of many Envelope World scenarios in the same JVM. The scenarios are
+ * read from a manifest file, with one scenario per line and the same
+ * arguments than the main program of EnvelopeWorld:
+ *
+ *     dimension numSteps stepsFile envelopesFile
+ *
+ * Empty lines and lines starting with # are ignored. Every scenario runs
+ * its own agent and environment in a thread of a fixed pool, and the final
+ * states and times of all of them are written to a report file, in the
+ * order of the manifest.
+ *
+ * The agents are created and run as in the main program, with the same
+ * system properties, and 0 steps runs all the steps of the file. With
+ * -Deworld.checkpoint=file every scenario keeps its own checkpoint, in
+ * file.n for the scenario n of the manifest (from 1).
+ **/
+public class BatchRunner {
+
+    /**
+     * One line of the manifest
+     **/
+    public static class Scenario {
+        public final int worldDim, numSteps;
+        public final String fileSteps, fileEnvelopes;
+
+        public Scenario(int worldDim, int numSteps, String fileSteps, String fileEnvelopes) {
+            this.worldDim = worldDim;
+            this.numSteps = numSteps;
+            this.fileSteps = fileSteps;
+            this.fileEnvelopes = fileEnvelopes;
+        }
+
+        public String toString() {
+            return worldDim + " " + numSteps + " " + fileSteps + " " + fileEnvelopes;
+        }
+    }
+
+    /**
+     * Outcome of a scenario: final state of the agent, time of the run and
+     * metrics of the agent, or the error that stopped it
+     **/
+    public static class Result {
+        public final Scenario scenario;
+        public EFState state;
+        public FinderMetrics metrics;
+        public long nanos;
+        public Exception error;
+
+        Result(Scenario scenario) {
+            this.scenario = scenario;
+        }
+    }
+
+    /**
+     * Number of threads of the pool
+     **/
+    int numThreads;
+
+    /**
+     * Class constructor
+     *
+     * @param numThreads number of scenarios run at the same time
+     **/
+    public BatchRunner(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed: " + numThreads);
+        }
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Read the scenarios of a manifest file
+     *
+     * @param manifest name of the manifest file
+     * @return the list of scenarios, in the order of the file
+     * @throws IOException if the file can not be read or a line is not valid
+     **/
+    public static List<Scenario> loadManifest(String manifest) throws IOException {
+        List<Scenario> scenarios = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(manifest))) {
+            String line;
+            int numLine = 0;
+            while ((line = br.readLine()) != null) {
+                numLine++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 4) {
+                    throw new IOException(manifest + ":" + numLine + ": expected 4 fields, found " + fields.length);
+                }
+                try {
+                    scenarios.add(new Scenario(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]),
+                                               fields[2], fields[3]));
+                } catch (NumberFormatException ex) {
+                    throw new IOException(manifest + ":" + numLine + ": " + ex.getMessage(), ex);
+                }
+            }
+        }
+        return scenarios;
+    }
+
+    /**
+     * Run all the scenarios in the thread pool and wait for them
+     *
+     * @param scenarios the scenarios to run
+     * @return one result per scenario, in the same order
+     * @throws InterruptedException if the thread is interrupted while waiting
+     **/
+    public List<Result> run(List<Scenario> scenarios) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Callable<Result>> tasks = new ArrayList<>(scenarios.size());
+            for (int s = 0; s < scenarios.size(); s++) {
+                Scenario scenario = scenarios.get(s);
+                String checkpoint = System.getProperty("eworld.checkpoint");
+                String scenarioCheckpoint = checkpoint == null ? null : checkpoint + "." + (s + 1);
+                tasks.add(() -> runScenario(scenario, scenarioCheckpoint));
+            }
+            List<Result> results = new ArrayList<>(scenarios.size());
+            for (Future<Result> future : pool.invokeAll(tasks)) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    // runScenario stores its errors in the result
+                    throw new IllegalStateException(ex.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run the steps of one scenario, as EnvelopeWorld.runStepsSequence does
+     *
+     * @param scenario the scenario to run
+     * @param checkpoint file of the checkpoint of the scenario, or null for none
+     * @return its result, with the error if the run failed
+     **/
+    static Result runScenario(Scenario scenario, String checkpoint) {
+        Result result = new Result(scenario);
+        long start = System.nanoTime();
+        try {
+            EnvelopeFinder EAgent = EnvelopeWorld.newAgent(scenario.worldDim);
+            EAgent.setEnvironment(new EnvelopeWorldEnv(scenario.worldDim, scenario.fileEnvelopes));
+            EnvelopeWorld.runSteps(EAgent, scenario.numSteps, scenario.fileSteps, checkpoint);
+            result.state = EAgent.getState();
+            result.metrics = EAgent.getMetrics();
+        } catch (Exception ex) {
+            result.error = ex;
+        }
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Write the report of a batch. For every scenario there is a line with
+     * the scenario, the time in milliseconds, the solver calls and the
+     * positions without envelope, followed by the rows of the final state in
+     * the format of the states files of the tests and a blank line.
+     * Failed scenarios have an ERROR line instead of the state.
+     *
+     * @param results results returned by run
+     * @param report name of the report file
+     * @throws IOException if the file can not be written
+     **/
+    public static void writeReport(List<Result> results, String report) throws IOException {
+        try (PrintWriter out = new PrintWriter(report)) {
+            for (Result result : results) {
+                out.print("SCENARIO " + result.scenario + " time=" + result.nanos / 1000000 + "ms");
+                if (result.error != null) {
+                    out.println();
+                    out.println("ERROR " + result.error);
+                } else {
+                    out.println(" solverCalls=" + result.metrics.getSolverCalls()
+                                + " crossed=" + result.state.numCrossed());
+                    int wDim = result.scenario.worldDim;
+                    StringBuilder row = new StringBuilder();
+                    for (int i = wDim; i >= 1; i--) {
+                        row.setLength(0);
+                        for (int j = 1; j <= wDim; j++) {
+                            row.append(result.state.get(i, j)).append(' ');
+                        }
+                        out.println(row);
+                    }
+                }
+                out.println();
+            }
+        }
+    }
+
+    /**
+     *  Run a batch from the command line:
+     *  arg[0] = manifest file with the scenarios
+     *  arg[1] = report file to write
+     *  arg[2] = number of threads (optional, by default the number of processors)
+     *
+     *  The output of the agents is disabled unless it is selected with -Deworld.log
+     *
+     * @throws IOException if the manifest can not be read or the report written
+     * @throws InterruptedException if the thread is interrupted while waiting
+     **/
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            AgentLog.error("You must specify the manifest and report files");
+            return;
+        }
+        if (System.getProperty("eworld.log") == null) {
+            AgentLog.setLevel(AgentLog.Level.SILENT);
+        }
+        int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        List<Scenario> scenarios = loadManifest(args[0]);
+        long start = System.nanoTime();
+        List<Result> results = new BatchRunner(numThreads).run(scenarios);
+        writeReport(results, args[1]);
+        int failed = 0;
+        for (Result result : results) {
+            if (result.error != null) {
+                failed++;
+            }
+        }
+        AgentLog.flush();
+        System.out.println("BATCH => " + results.size() + " scenarios, " + failed + " failed, "
+                           + (System.nanoTime() - start) / 1000000 + "ms with " + numThreads + " threads");
+    }
+}
@@ -0,0 +1,221 @@
+package apryraz.eworld;
+
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.IVecInt;
+
+/**
+ * Native engine for the formula of the EnvelopeFinder agent, that does not
+ * use a general SAT solver. The rules of Gamma are simple neighbourhood
+ * implications: an envelope in the future at a position makes true the
+ * detectors of the neighbour positions that can see it, and a position
+ * without envelope in the past has no envelope in the future. So the only
+ * knowledge we need to store is:
+ *
+ *   - blocked: bitset over the grid with the positions seen by some detector
+ *     that gave a negative reading. An envelope there would make that
+ *     detector true, so the future variable of the position is false.
+ *   - pastFalse: bitset over the grid with the past variables known false
+ *     (the conclusions of the previous steps), so the future variable of
+ *     the position is false too.
+ *
+ * The engine uses the same variable identifiers than EnvelopeFinder
+ * (detectors, past and future offsets), so it accepts the same unit clauses
+ * that the agent adds to the solver and answers the same questions.
+ **/
+public class DetectorPropagator {
+
+    /**
+     * Dimension of the world and total size of the world (Dim^2)
+     **/
+    int WorldDim, WorldLinealDim;
+    /**
+     * Bitsets over the grid, the bit of position (x,y) is (y-1)*WorldDim + (x-1)
+     **/
+    long[] blocked, pastFalse;
+    /**
+     * Bitsets over the detector variables with the readings received
+     **/
+    long[] detectorTrue, detectorFalse;
+    /**
+     * Future envelope variables true in the last model found
+     **/
+    long[] model;
+
+    /**
+     * Class constructor, with no knowledge apart from Gamma
+     *
+     * @param WDim the dimension of the Envelope World
+     **/
+    public DetectorPropagator(int WDim) {
+        WorldDim = WDim;
+        WorldLinealDim = WorldDim * WorldDim;
+        int words = (WorldLinealDim + 63) / 64;
+        blocked = new long[words];
+        pastFalse = new long[words];
+        model = new long[words];
+        detectorTrue = new long[(WorldLinealDim * 5 + 64) / 64];
+        detectorFalse = new long[(WorldLinealDim * 5 + 64) / 64];
+    }
+
+    /**
+     * Add a clause to the knowledge of the engine. Only the unit clauses
+     * added by EnvelopeFinder are supported: detector readings and
+     * past variables known false.
+     *
+     * @param clause the clause to add
+     * @throws ContradictionException if the clause contradicts a previous reading
+     **/
+    public void addClause(IVecInt clause) throws ContradictionException {
+        if (clause.size() != 1) {
+            throw new UnsupportedOperationException("Only unit clauses are supported: " + clause);
+        }
+        int literal = clause.get(0);
+        int var = Math.abs(literal);
+        if (var <= WorldLinealDim * 5) {
+            addDetectorReading(var, literal > 0);
+        } else if (var <= WorldLinealDim * 6 && literal < 0) {
+            set(pastFalse, var - WorldLinealDim * 5 - 1);
+        } else {
+            throw new UnsupportedOperationException("Unsupported unit clause: " + literal);
+        }
+    }
+
+    /**
+     * Store a detector reading, and if it is negative block all the positions
+     * that the detector sees.
+     *
+     * @param var detector variable, 5*((y-1)*WorldDim + (x-1)) + detector
+     * @param value value of the reading
+     * @throws ContradictionException if the opposite reading was already stored
+     **/
+    void addDetectorReading(int var, boolean value) throws ContradictionException {
+        if (isSet(value ? detectorFalse : detectorTrue, var)) {
+            throw new ContradictionException("Contradictory reading for variable " + var);
+        }
+        if (value) {
+            set(detectorTrue, var);
+            return;
+        }
+        set(detectorFalse, var);
+        int cell = (var - 1) / 5;
+        int x = cell % WorldDim + 1;
+        int y = cell / WorldDim + 1;
+        switch ((var - 1) % 5 + 1) {
+            case 1:
+                blockRange(x + 1, x + 1, y - 1, y + 1);
+                break;
+            case 2:
+                blockRange(x - 1, x + 1, y + 1, y + 1);
+                break;
+            case 3:
+                blockRange(x - 1, x - 1, y - 1, y + 1);
+                break;
+            case 4:
+                blockRange(x - 1, x + 1, y - 1, y - 1);
+                break;
+            default:
+                blockRange(x, x, y, y);
+        }
+    }
+
+    /**
+     * Block the positions of the rectangle [x1,x2]x[y1,y2] inside the world
+     **/
+    private void blockRange(int x1, int x2, int y1, int y2) {
+        for (int y = Math.max(y1, 1); y <= Math.min(y2, WorldDim); y++) {
+            for (int x = Math.max(x1, 1); x <= Math.min(x2, WorldDim); x++) {
+                set(blocked, (y - 1) * WorldDim + (x - 1));
+            }
+        }
+    }
+
+    /**
+     * Check if the formula is satisfiable assuming true or false some future
+     * envelope variables. The formula is satisfiable when all the futures
+     * assumed true are not blocked and their past is not known false (the
+     * past of those positions is then true for the past ALO clause). If no
+     * future is assumed true, one such position must be chosen for the
+     * future ALO clause.
+     *
+     * @param assumptions literals of future variables assumed
+     * @return true if Gamma + knowledge + assumptions is satisfiable
+     **/
+    public boolean isSatisfiable(IVecInt assumptions) {
+        int futureOffset = WorldLinealDim * 6 + 1;
+        java.util.Arrays.fill(model, 0L);
+        long[] falseFutures = null;
+        int numTrue = 0;
+        for (int k = 0; k < assumptions.size(); k++) {
+            int literal = assumptions.get(k);
+            int bit = Math.abs(literal) - futureOffset;
+            if (bit < 0 || bit >= WorldLinealDim) {
+                throw new UnsupportedOperationException("Only future variables can be assumed: " + literal);
+            }
+            if (literal > 0) {
+                if (isNoEnvelope(bit) || (falseFutures != null && isSet(falseFutures, bit))) {
+                    return false;
+                }
+                if (!isSet(model, bit)) {
+                    set(model, bit);
+                    numTrue++;
+                }
+            } else {
+                if (isSet(model, bit)) {
+                    return false;
+                }
+                if (falseFutures == null) {
+                    falseFutures = new long[blocked.length];
+                }
+                set(falseFutures, bit);
+            }
+        }
+        if (numTrue > 0) {
+            return true;
+        }
+        // Choose a future position for the ALO clause
+        for (int bit = 0; bit < WorldLinealDim; bit++) {
+            if (!isNoEnvelope(bit) && (falseFutures == null || !isSet(falseFutures, bit))) {
+                set(model, bit);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Value of a future envelope variable in the model found by the last
+     * satisfiable call to isSatisfiable
+     *
+     * @param var future envelope variable
+     * @return true if the variable is true in the model
+     **/
+    public boolean model(int var) {
+        int bit = var - WorldLinealDim * 6 - 1;
+        return bit >= 0 && bit < WorldLinealDim && isSet(model, bit);
+    }
+
+    /**
+     * Check if it is a logical consequence that there is no envelope at (x,y)
+     * in the future: the position is blocked by a negative reading, or it
+     * had no envelope in the past.
+     *
+     * @param x x coordinate of the position
+     * @param y y coordinate of the position
+     * @return true if the future variable of (x,y) is false in every model
+     **/
+    public boolean isNoEnvelope(int x, int y) {
+        return isNoEnvelope((y - 1) * WorldDim + (x - 1));
+    }
+
+    private boolean isNoEnvelope(int bit) {
+        return isSet(blocked, bit) || isSet(pastFalse, bit);
+    }
+
+    private static boolean isSet(long[] bits, int bit) {
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    private static void set(long[] bits, int bit) {
+        bits[bit >>> 6] |= 1L << bit;
+    }
+}
@@ -1,59 +1,112 @@
 package apryraz.eworld;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class EFState {
   /**
-
-
-  **/
+   *  The state of knowledge of the agent about every position of the world:
+   *  "?" (unknown) or "X" (no envelope). It is stored as a bitset with the
+   *  positions marked "X", the bit of position (i,j) is (i-1)*wDim + (j-1),
+   *  so comparing, copying and finding the differences between two states
+   *  works on words of 64 positions.
+   **/
 
   int wDim;
-  String [][] matrix;
+  long [] crossed;
 
   public EFState( int dim ) {
     wDim = dim;
-    matrix = new String[wDim][wDim];
+    crossed = new long[(wDim * wDim + 63) / 64];
     initializeState();
   }
 
   public void initializeState()
   {
-      for (int i = 0; i < wDim; i++) {
-          for (int j = 0; j < wDim; j++) {
-              matrix[i][j] = "?";
-          }
-      }
+      Arrays.fill(crossed, 0L);
   }
 
   /* i is the row, j the column
      we assume i and j are given in the range [1,wDim] */
   public void set( int i, int j, String val ) {
 
-         matrix[i-1][j-1] = val;
+         int bit = (i-1) * wDim + (j-1);
+         if (val.equals("X")) {
+             crossed[bit >>> 6] |= 1L << bit;
+         } else if (val.equals("?")) {
+             crossed[bit >>> 6] &= ~(1L << bit);
+         } else {
+             throw new IllegalArgumentException("Unknown state value: " + val);
+         }
   }
 
-  public boolean equals(Object obj){
-       EFState efstate2 = (EFState) obj;
-       boolean status = true;
+  /* same coordinates convention than set */
+  public String get( int i, int j ) {
 
-       for (int i = 0; i < wDim; i++) {
-           for (int j = 0; j < wDim; j++) {
-               if (! matrix[i][j].equals( efstate2.matrix[i][j]) )
-                 status = false;
-           }
-       }
+         return isCrossed(i, j) ? "X" : "?";
+  }
+
+  /* true if position (i,j) is marked "X" */
+  public boolean isCrossed( int i, int j ) {
+         int bit = (i-1) * wDim + (j-1);
+         return (crossed[bit >>> 6] & (1L << bit)) != 0;
+  }
 
-       return status;
+  /* number of positions marked "X" */
+  public int numCrossed() {
+      int count = 0;
+      for (long word : crossed) {
+          count += Long.bitCount(word);
+      }
+      return count;
+  }
+
+  /* a snapshot of this state, that does not change with it */
+  public EFState copy() {
+      EFState snapshot = new EFState(wDim);
+      System.arraycopy(crossed, 0, snapshot.crossed, 0, crossed.length);
+      return snapshot;
+  }
+
+  /* positions (i,j) with a different value in both states, in bit order */
+  public List<Position> diff( EFState efstate2 ) {
+      List<Position> changed = new ArrayList<>();
+      for (int w = 0; w < crossed.length; w++) {
+          long word = crossed[w] ^ efstate2.crossed[w];
+          while (word != 0) {
+              int bit = w * 64 + Long.numberOfTrailingZeros(word);
+              changed.add(new Position(bit / wDim + 1, bit % wDim + 1));
+              word &= word - 1;
+          }
+      }
+      return changed;
+  }
+
+  public boolean equals(Object obj){
+       if (!(obj instanceof EFState)) {
+           return false;
+       }
+       EFState efstate2 = (EFState) obj;
+       return wDim == efstate2.wDim && Arrays.equals(crossed, efstate2.crossed);
    }
 
+  public int hashCode() {
+      return 31 * wDim + Arrays.hashCode(crossed);
+  }
+
   public void printState()
   {
-      System.out.println("FINDER => Printing Envelope world matrix");
-      for (int i = wDim-1; i > -1; i--) {
-          System.out.print("\t#\t");
-          for (int j = 0; j < wDim; j++) {
-              System.out.print(matrix[i][j] + " ");
+      AgentLog.println("FINDER => Printing Envelope world matrix");
+      StringBuilder row = new StringBuilder();
+      for (int i = wDim; i >= 1; i--) {
+          row.setLength(0);
+          row.append("\t#\t");
+          for (int j = 1; j <= wDim; j++) {
+              row.append(get(i, j)).append(' ');
           }
-          System.out.println("\t#");
+          row.append("\t#");
+          AgentLog.println(row.toString());
       }
   }
 
@@ -10,18 +10,21 @@ package apryraz.eworld;
 import java.util.ArrayList;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
-import static java.lang.System.exit;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -49,11 +52,49 @@ public class EnvelopeFinder {
      * index to the next movement to perform, and total number of movements
      **/
     int idNextStep, numMovements;
+    /**
+     * Source of the steps when they are read while the agent moves,
+     * instead of from listOfSteps
+     **/
+    Iterator<Position> stepSource;
     /**
      * Array of clauses that represent conclusions obtained in the last
      * call to the inference function, but rewritten using the "past" variables
      **/
     ArrayList<VecInt> futureToPast = new ArrayList<>();
+    /**
+     * Clauses added to the formula after Gamma (detector readings and past
+     * conclusions) that the workers of the ParallelInference have not
+     * received yet, in the order they were added. It is null, and no clause
+     * is logged, while the agent does not use a ParallelInference
+     **/
+    ArrayList<VecInt> addedClauses;
+    /**
+     * List where addClauseToFormula stores the clauses, instead of adding
+     * them to the formula, while factClauses is collecting them
+     **/
+    private List<VecInt> factSink;
+    /**
+     * Number of times the formula has been rebuilt by compactFormula
+     **/
+    int formulaVersion = 0;
+    /**
+     * Mask of the active detectors read at every position, or -1 if the
+     * position has not been sensed yet. Index (y-1)*WorldDim + (x-1)
+     **/
+    int[] detectorReadings;
+    /**
+     * Number of steps between two compactions of the formula (0 to never
+     * compact), and steps done since the last one
+     **/
+    int compactionInterval = 0;
+    int stepsSinceCompaction = 0;
+    /**
+     * File where a checkpoint is saved every checkpointInterval steps,
+     * or null to not save checkpoints
+     **/
+    File checkpointFile;
+    int checkpointInterval;
     /**
      * the current state of knowledge of the agent (what he knows about
      * every position of the world)
@@ -63,11 +104,41 @@ public class EnvelopeFinder {
      * The object that represents the interface to the Treasure World
      **/
     EnvelopeWorldEnv EnvAgent;
+    /**
+     * Channel where the messages to the environment are sent, the
+     * environment object itself unless another channel is selected
+     **/
+    WorldChannel channel;
     /**
      * SAT solver object that stores the logical boolean formula with the rules
      * and current knowledge about not possible locations for Treasure
      **/
     ISolver solver;
+    /**
+     * Native propagation engine used instead of the SAT solver, when the agent
+     * is created with it (otherwise null)
+     **/
+    DetectorPropagator propagator;
+    /**
+     * Backend that stores the formula: a SAT4J configuration for solver,
+     * or the propagation engine for propagator
+     **/
+    SolverBackend backend;
+    /**
+     * False when the agent has no formula of the whole world (solver and
+     * propagator are null): its TiledInference keeps the formulas of the
+     * tiles, and the agent only keeps its state and its readings
+     **/
+    boolean wholeFormula;
+    /**
+     * Template builder that receives the clauses of Gamma while it is generated
+     **/
+    GammaTemplate.Builder gammaBuilder;
+    /**
+     * Scratch buffers reused for the binary and ALO clauses of Gamma
+     **/
+    final VecInt binaryScratch = new VecInt(2);
+    final VecInt aloScratch = new VecInt();
     /**
      * Agent position in the world and variable to record if there is a envelope
      * at that current position
@@ -93,6 +164,38 @@ public class EnvelopeFinder {
     int Detector4Offset;
     int Detector5Offset;
     int actualLiteral;
+    /**
+     * When true, performInferenceQuestions only asks the solver about cells
+     * that are still "?" in efstate. Cells already marked "X" cannot become
+     * possible again, because the formula only grows between steps.
+     **/
+    boolean frontierInference = false;
+    /**
+     * Strategy used to answer the inference questions of every step,
+     * and number of satisfiability questions made to the solver
+     **/
+    InferenceStrategy inference = new SequentialInference();
+    long numSolverCalls = 0;
+    /**
+     * Counters and timers of the steps of the agent
+     **/
+    final FinderMetrics metrics = new FinderMetrics(this);
+    /**
+     * In lazy mode the solver only has the past and future variables at the
+     * start, and the detector variables of a position (with the clauses of
+     * Gamma that use them) are added the first time the agent senses there.
+     * lazyDetectorVar has the first of the five detector variables of every
+     * sensed position (0 if not sensed), and numVariables is the number of
+     * variables allocated.
+     **/
+    boolean lazyDetectors;
+    int[] lazyDetectorVar;
+    int numVariables;
+    /**
+     * Cache of the conclusions of the inference for the evidence around the
+     * agent, null to always ask the inference strategy
+     **/
+    InferenceCache inferenceCache;
 
     /**
      * The class constructor must create the initial Boolean formula with the
@@ -102,24 +205,123 @@ public class EnvelopeFinder {
      * @param WDim the dimension of the Envelope World
      **/
     public EnvelopeFinder(int WDim) {
+        this(WDim, false);
+    }
+
+    /**
+     * Class constructor that can select the native propagation engine
+     * (DetectorPropagator) instead of building Gamma into a SAT solver.
+     * The propagation engine gives the same states than the SAT solver,
+     * and it uses PropagationInference as inference strategy.
+     *
+     * @param WDim the dimension of the Envelope World
+     * @param propagation true to use the propagation engine
+     **/
+    public EnvelopeFinder(int WDim, boolean propagation) {
+        this(WDim, propagation, false);
+    }
+
+    /**
+     * Class constructor that can also select the lazy mode of the SAT
+     * solver, where the detector variables and their clauses are only added
+     * for the positions where the agent senses. The detector variables only
+     * appear in Gamma in clauses future => detector, so the positions not
+     * sensed can always make them true, and both formulas give the same
+     * states. The past variables are then 1..WLD and the future variables
+     * WLD+1..2WLD, and the detector variables follow them.
+     *
+     * @param WDim the dimension of the Envelope World
+     * @param propagation true to use the propagation engine
+     * @param lazy true to add the detector variables when they are sensed
+     *             (ignored with the propagation engine)
+     **/
+    public EnvelopeFinder(int WDim, boolean propagation, boolean lazy) {
+        this(WDim, propagation ? SolverBackend.PROPAGATION : SolverBackend.DEFAULT, lazy);
+    }
+
+    /**
+     * Class constructor with the backend that stores the formula: any of
+     * the SAT4J configurations, or the propagation engine.
+     *
+     * @param WDim the dimension of the Envelope World
+     * @param backend the solver backend
+     * @param lazy true to add the detector variables when they are sensed
+     *             (ignored with the propagation engine)
+     **/
+    public EnvelopeFinder(int WDim, SolverBackend backend, boolean lazy) {
+        this(WDim, backend, lazy, null);
+    }
+
+    /**
+     * Class constructor of an agent that only uses the tiled inference.
+     * The agent does not build Gamma nor any formula of the whole world:
+     * the readings are only added to the solvers of the tiles, and the
+     * conclusions of the steps only to the state. What is still allocated
+     * for every position of the world is the state, the readings of the
+     * agent, the readings already added to the tiles and the (null until
+     * used) array of tiles. The inference strategy can not be changed.
+     *
+     * @param WDim the dimension of the Envelope World
+     * @param backend the SAT4J configuration of the tile solvers (the SAT4J
+     *                default solver for the propagation engine)
+     * @param tiles the tiled inference of the agent
+     **/
+    public EnvelopeFinder(int WDim, SolverBackend backend, TiledInference tiles) {
+        this(WDim, backend, false, tiles);
+    }
+
+    private EnvelopeFinder(int WDim, SolverBackend backend, boolean lazy, TiledInference tiles) {
 
         WorldDim = WDim;
         WorldLinealDim = WorldDim * WorldDim;
+        this.backend = backend;
+        boolean propagation = backend.isPropagation();
+        wholeFormula = tiles == null;
+        lazyDetectors = lazy && !propagation && wholeFormula;
+        if (!wholeFormula) {
+            // Only the past variables are used, to name the conclusions of the steps
+            EnvelopePastOffset = 1;
+            EnvelopeFutureOffset = WorldLinealDim + 1;
+        } else if (lazyDetectors) {
+            lazyDetectorVar = new int[WorldLinealDim];
+            numVariables = WorldLinealDim * 2;
+            EnvelopePastOffset = 1;
+            EnvelopeFutureOffset = WorldLinealDim + 1;
+        } else {
+            Detector1Offset = 1;
+            Detector2Offset = WorldLinealDim * 1 + 1;
+            Detector3Offset = WorldLinealDim * 2 + 1;
+            Detector4Offset = WorldLinealDim * 3 + 1;
+            Detector5Offset = WorldLinealDim * 4 + 1;
+            EnvelopePastOffset = WorldLinealDim * 5 + 1;
+            EnvelopeFutureOffset = WorldLinealDim * 6 + 1;
+        }
 
-        try {
-            solver = buildGamma();
-        } catch (FileNotFoundException ex) {
-            Logger.getLogger(EnvelopeFinder.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (IOException | ContradictionException ex) {
-            Logger.getLogger(EnvelopeFinder.class.getName()).log(Level.SEVERE, null, ex);
+        if (!wholeFormula) {
+            inference = tiles;
+        } else if (propagation) {
+            propagator = new DetectorPropagator(WorldDim);
+            inference = new PropagationInference();
+        } else {
+            try {
+                solver = buildGamma();
+            } catch (FileNotFoundException ex) {
+                Logger.getLogger(EnvelopeFinder.class.getName()).log(Level.SEVERE, null, ex);
+            } catch (IOException | ContradictionException ex) {
+                Logger.getLogger(EnvelopeFinder.class.getName()).log(Level.SEVERE, null, ex);
+            }
         }
         numMovements = 0;
         idNextStep = 0;
-        System.out.println("STARTING ENVELOPE FINDER AGENT...");
+        AgentLog.summary("STARTING ENVELOPE FINDER AGENT...");
 
 
         efstate = new EFState(WorldDim);  // Initialize state (matrix) of knowledge with '?'
-        efstate.printState();
+        detectorReadings = new int[WorldLinealDim];
+        Arrays.fill(detectorReadings, -1);
+        if (AgentLog.isEnabled(AgentLog.Level.TRACE)) {
+            efstate.printState();
+        }
 
     }
 
@@ -134,6 +336,17 @@ public class EnvelopeFinder {
      **/
     public void setEnvironment(EnvelopeWorldEnv environment) {
         EnvAgent = environment;
+        channel = environment;
+    }
+
+    /**
+     * Select the channel used to send the messages to the environment,
+     * instead of calling the environment object directly.
+     *
+     * @param worldChannel the channel to the Envelope World
+     **/
+    public void setChannel(WorldChannel worldChannel) {
+        channel = worldChannel;
     }
 
 
@@ -145,31 +358,250 @@ public class EnvelopeFinder {
      * @param numSteps  number of steps to read from the file
      * @param stepsFile the name of the text file with the line that contains
      *                  the sequence of steps: x1,y1 x2,y2 ...  xn,yn
+     * @throws IOException if the file can not be read or has fewer steps
      **/
-    public void loadListOfSteps(int numSteps, String stepsFile) {
-        String[] stepsList;
-        String steps = ""; // Prepare a list of movements to try with the FINDER Agent
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(stepsFile));
-            System.out.println("STEPS FILE OPENED ...");
-            steps = br.readLine();
-            br.close();
-        } catch (FileNotFoundException ex) {
-            System.out.println("MSG.   => Steps file not found");
-            exit(1);
-        } catch (IOException ex) {
-            Logger.getLogger(EnvelopeFinder.class.getName()).log(Level.SEVERE, null, ex);
-            exit(2);
-        }
-        stepsList = steps.split(" ");
+    public void loadListOfSteps(int numSteps, String stepsFile) throws IOException {
+        // Prepare a list of movements to try with the FINDER Agent
+        int[] coords = PositionFile.readPairs(stepsFile, numSteps);
+        AgentLog.trace("STEPS FILE OPENED ...");
+        if (coords.length < 2 * numSteps) {
+            throw new IOException("Only " + coords.length / 2 + " steps in " + stepsFile + ", expected " + numSteps);
+        }
         listOfSteps = new ArrayList<Position>(numSteps);
         for (int i = 0; i < numSteps; i++) {
-            // Split by coma every envelope position and save it
-            String[] coords = stepsList[i].split(",");
-            listOfSteps.add(new Position(Integer.parseInt(coords[0]), Integer.parseInt(coords[1])));
+            listOfSteps.add(new Position(coords[2 * i], coords[2 * i + 1]));
         }
         numMovements = listOfSteps.size(); // Initialization of numMovements
         idNextStep = 0;
+        stepSource = null;
+    }
+
+    /**
+     * Load all the steps of a world file, as loadListOfSteps does
+     *
+     * @param world the world read from a binary world file
+     **/
+    public void loadListOfSteps(WorldFile world) {
+        listOfSteps = new ArrayList<Position>(world.numSteps());
+        for (int i = 0; i < world.steps.length; i += 2) {
+            listOfSteps.add(new Position(world.steps[i], world.steps[i + 1]));
+        }
+        numMovements = listOfSteps.size();
+        idNextStep = 0;
+        stepSource = null;
+    }
+
+    /**
+     * Take the steps to perform from a source that gives them one by one,
+     * without knowing how many there are. Nothing is stored in listOfSteps.
+     *
+     * @param source the positions of the steps, in order
+     **/
+    public void setStepSource(Iterator<Position> source) {
+        stepSource = source;
+        listOfSteps = null;
+        numMovements = 0;
+        idNextStep = 0;
+    }
+
+    /**
+     * Read the steps from a file while the agent moves, with a StepReader.
+     *
+     * @param stepsFile the name of the text file with the sequence of steps
+     *                  x1,y1 x2,y2 ...  xn,yn, or "-" for the standard input
+     * @throws IOException if the file can not be opened
+     **/
+    public void streamSteps(String stepsFile) throws IOException {
+        setStepSource(StepReader.open(stepsFile));
+    }
+
+    /**
+     * Let the agent choose its own steps with an ExplorationPlanner, until
+     * no position would give new information.
+     **/
+    public void explore() {
+        setStepSource(new ExplorationPlanner(this));
+    }
+
+    /**
+     * Skip the first steps of the loaded steps, without performing them.
+     *
+     * @param numSteps number of steps to skip
+     **/
+    void skipSteps(int numSteps) {
+        if (stepSource != null) {
+            for (int i = idNextStep; i < numSteps; i++) {
+                if (!stepSource.hasNext()) {
+                    throw new IllegalStateException("Only " + i + " steps to skip");
+                }
+                stepSource.next();
+            }
+        } else if (numSteps > numMovements) {
+            throw new IllegalStateException("Only " + numMovements + " steps to skip");
+        }
+        idNextStep = numSteps;
+    }
+
+    /**
+     * Check if the agent has more steps to perform
+     *
+     * @return true if there is a next step
+     **/
+    public boolean hasNextStep() {
+        return stepSource != null ? stepSource.hasNext() : idNextStep < numMovements;
+    }
+
+    /**
+     * Enable or disable the frontier-only inference mode, where only the
+     * cells still unknown are checked at every step.
+     *
+     * @param frontier true to skip the cells already discarded
+     **/
+    public void setFrontierInference(boolean frontier) {
+        frontierInference = frontier;
+    }
+
+    /**
+     * Select the strategy used to perform the inference questions.
+     *
+     * @param strategy the inference strategy, SequentialInference by default
+     * @throws IllegalStateException if the agent only has the formulas of
+     *                               its tiled inference
+     **/
+    public void setInferenceStrategy(InferenceStrategy strategy) {
+        if (!wholeFormula && strategy != inference) {
+            throw new IllegalStateException("The agent only has the formulas of its tiled inference");
+        }
+        inference = strategy;
+        if (!(strategy instanceof ParallelInference)) {
+            addedClauses = null;
+        }
+    }
+
+    /**
+     * Returns the number of satisfiability questions made to the solver
+     * since the agent was created.
+     *
+     * @return the number of calls to isSatisfiable
+     **/
+    public long getNumSolverCalls() {
+        return numSolverCalls;
+    }
+
+    /**
+     * Returns the backend that stores the formula of the agent
+     *
+     * @return the SAT4J configuration or the propagation engine
+     **/
+    public SolverBackend getSolverBackend() {
+        return backend;
+    }
+
+    /**
+     * Select how often the formula is compacted. Every interval steps the
+     * solver is built again with Gamma and only the facts known by the agent
+     * (the readings of the sensed positions and the positions marked "X"),
+     * dropping the learned clauses and the rest of the solver history.
+     *
+     * @param interval number of steps between compactions, 0 to never compact
+     **/
+    public void setCompactionInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Negative compaction interval: " + interval);
+        }
+        compactionInterval = interval;
+        stepsSinceCompaction = 0;
+    }
+
+    /**
+     * Select a cache for the conclusions of the inference. Before asking the
+     * inference strategy the agent looks for the readings around its position
+     * in the cache, and if they were already seen it marks the same positions
+     * without asking. The cache can be shared by several agents.
+     *
+     * @param cache the cache, or null to always ask the inference strategy
+     **/
+    public void setInferenceCache(InferenceCache cache) {
+        inferenceCache = cache;
+    }
+
+    /**
+     * Save a checkpoint of the agent knowledge, see FinderCheckpoint.
+     *
+     * @param fileName the checkpoint file
+     * @throws IOException Signals that an I/O exception of some sort has occurred.
+     **/
+    public void saveCheckpoint(String fileName) throws IOException {
+        FinderCheckpoint.save(this, new File(fileName));
+    }
+
+    /**
+     * Continue from a checkpoint, after loading the steps of the agent. The
+     * steps done before the checkpoint are skipped, and the formula is built
+     * again from Gamma and the facts of the checkpoint.
+     *
+     * @param fileName the checkpoint file
+     * @throws IOException if the file is not a checkpoint of this world dimension
+     * @throws ContradictionException if the facts contradict Gamma
+     **/
+    public void restoreCheckpoint(String fileName) throws IOException, ContradictionException {
+        FinderCheckpoint.restore(this, new File(fileName));
+    }
+
+    /**
+     * Save a checkpoint automatically every interval steps.
+     *
+     * @param fileName the checkpoint file, or null to stop saving checkpoints
+     * @param interval number of steps between checkpoints
+     **/
+    public void setCheckpoint(String fileName, int interval) {
+        if (fileName != null && interval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+        }
+        checkpointFile = fileName == null ? null : new File(fileName);
+        checkpointInterval = interval;
+    }
+
+    /**
+     * Returns the metrics of the steps performed by the agent.
+     *
+     * @return the metrics object, updated after every step
+     **/
+    public FinderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the statistics of the SAT4J solver of the agent (conflicts,
+     * propagations, decisions...), or an empty map with the propagation engine.
+     *
+     * @return the statistics by name
+     **/
+    public Map<String, Number> solverStatistics() {
+        ISolver agentSolver = solver;
+        if (agentSolver == null) {
+            return Collections.emptyMap();
+        }
+        // SAT4J 2.3.1 is compiled without generics, so getStat is a raw Map
+        Map<String, Number> statistics = new HashMap<>();
+        for (Object stat : agentSolver.getStat().entrySet()) {
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) stat;
+            if (entry.getValue() instanceof Number) {
+                statistics.put(String.valueOf(entry.getKey()), (Number) entry.getValue());
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Returns the number of clauses stored in the SAT4J solver of the agent,
+     * or 0 with the propagation engine.
+     *
+     * @return the number of clauses
+     **/
+    public int solverClauses() {
+        ISolver agentSolver = solver;
+        return agentSolver == null ? 0 : agentSolver.nConstraints();
     }
 
     /**
@@ -193,20 +625,45 @@ public class EnvelopeFinder {
      **/
     public void runNextStep() throws
             IOException, ContradictionException, TimeoutException {
+        long start = System.nanoTime();
         // Add the conclusions obtained in the previous step
         // but as clauses that use the "past" variables
-        addLastFutureClausesToPastClauses();
+        // In compaction mode they are added with the rest of facts in the new formula
+        if (compactionInterval > 0 && ++stepsSinceCompaction >= compactionInterval) {
+            compactFormula();
+            stepsSinceCompaction = 0;
+        } else {
+            addLastFutureClausesToPastClauses();
+        }
+        long addPastEnd = System.nanoTime();
 
         // Ask to move, and check whether it was successful
         // Also, record if a agent was found at that position
-        processMoveAnswer(moveToNext());
+        processMoveAnswer(sendMoveToNext());
+        long moveEnd = System.nanoTime();
 
         // Detector sensor to discover new information
-        processDetectorSensorAnswer(DetectsAt());
+        processDetectorSensorAnswer(sendDetectsAt());
+        long detectEnd = System.nanoTime();
 
         // Perform logical consequence questions for all the positions of the Envelope World
-        performInferenceQuestions();
-        efstate.printState();      // Print the resulting knowledge matrix
+        long callsBefore = numSolverCalls;
+        int crossedBefore = efstate.numCrossed();
+        if (inferenceCache != null) {
+            performCachedInference();
+        } else {
+            performInferenceQuestions();
+        }
+        long inferenceEnd = System.nanoTime();
+        int crossed = efstate.numCrossed();
+        metrics.recordStep(addPastEnd - start, moveEnd - addPastEnd, detectEnd - moveEnd,
+                inferenceEnd - detectEnd, numSolverCalls - callsBefore, crossed - crossedBefore, crossed);
+        if (checkpointFile != null && idNextStep % checkpointInterval == 0) {
+            saveCheckpoint(checkpointFile.getPath());
+        }
+        if (AgentLog.isEnabled(AgentLog.Level.TRACE)) {
+            efstate.printState();      // Print the resulting knowledge matrix
+        }
     }
 
 
@@ -219,15 +676,25 @@ public class EnvelopeFinder {
      * movement was successful or not.
      **/
     public AMessage moveToNext() {
+        return sendMoveToNext().toAMessage();
+    }
+
+    /**
+     * Typed version of moveToNext, that does not format any message string.
+     *
+     * @return the answer message from the environment, or NOMESSAGE if
+     * there are no more steps to perform.
+     **/
+    public WorldMessage sendMoveToNext() {
         Position nextPosition;
 
-        if (idNextStep < numMovements) {
-            nextPosition = listOfSteps.get(idNextStep);
+        if (hasNextStep()) {
+            nextPosition = stepSource != null ? stepSource.next() : listOfSteps.get(idNextStep);
             idNextStep = idNextStep + 1;
-            return moveTo(nextPosition.x, nextPosition.y);
+            return sendMoveTo(nextPosition.x, nextPosition.y);
         } else {
-            System.out.println("NO MORE steps to perform at agent!");
-            return (new AMessage("NOMESSAGE", "", "",""));
+            AgentLog.trace("NO MORE steps to perform at agent!");
+            return WorldMessage.NONE;
         }
     }
 
@@ -243,12 +710,22 @@ public class EnvelopeFinder {
      * moveto message sent
      **/
     public AMessage moveTo(int x, int y) {
-        // Tell the EnvironmentAgentID that we want  to move
-        AMessage msg, ans;
+        return sendMoveTo(x, y).toAMessage();
+    }
 
-        msg = new AMessage("moveto", (Integer.valueOf(x).toString()), (Integer.valueOf(y).toString()), "");
-        ans = EnvAgent.acceptMessage(msg);
-        System.out.println("FINDER => moving to : (" + x + "," + y + ")");
+    /**
+     * Typed version of moveTo
+     *
+     * @param x horizontal coordinate of the movement to perform
+     * @param y vertical coordinate of the movement to perform
+     * @return returns the answer obtained from the environment object
+     **/
+    public WorldMessage sendMoveTo(int x, int y) {
+        // Tell the EnvironmentAgentID that we want  to move
+        WorldMessage ans = channel.acceptMessage(new WorldMessage(WorldMessage.Type.MOVETO, x, y, 0));
+        if (AgentLog.isEnabled(AgentLog.Level.TRACE)) {
+            AgentLog.trace("FINDER => moving to : (" + x + "," + y + ")");
+        }
 
         return ans;
     }
@@ -260,11 +737,22 @@ public class EnvelopeFinder {
      * @param moveans the answer given by the environment to the last move message
      **/
     public void processMoveAnswer(AMessage moveans) {
-        if (moveans.getComp(0).equals("movedto")) {
-            agentX = Integer.parseInt(moveans.getComp(1));
-            agentY = Integer.parseInt(moveans.getComp(2));
-            envelopeFound = Integer.parseInt(moveans.getComp(3));
-            System.out.println("FINDER => moved to : (" + agentX + "," + agentY + ")" + "Envelope " + envelopeFound);
+        processMoveAnswer(WorldMessage.fromAMessage(moveans));
+    }
+
+    /**
+     * Typed version of processMoveAnswer
+     *
+     * @param moveans the answer given by the environment to the last move message
+     **/
+    public void processMoveAnswer(WorldMessage moveans) {
+        if (moveans.type == WorldMessage.Type.MOVEDTO) {
+            agentX = moveans.x;
+            agentY = moveans.y;
+            envelopeFound = moveans.value;
+            if (AgentLog.isEnabled(AgentLog.Level.TRACE)) {
+                AgentLog.trace("FINDER => moved to : (" + agentX + "," + agentY + ")" + "Envelope " + envelopeFound);
+            }
         }
     }
 
@@ -275,11 +763,19 @@ public class EnvelopeFinder {
      * @return return the answer given by the environment
      **/
     public AMessage DetectsAt() {
-        AMessage msg, ans;
+        return sendDetectsAt().toAMessage();
+    }
 
-        msg = new AMessage("detectsat", (Integer.valueOf(agentX).toString()),
-                (Integer.valueOf(agentY).toString()), "");        ans = EnvAgent.acceptMessage(msg);
-        System.out.println("FINDER => detecting at : (" + agentX + "," + agentY + ")");
+    /**
+     * Typed version of DetectsAt
+     *
+     * @return return the answer given by the environment, with the detectors mask
+     **/
+    public WorldMessage sendDetectsAt() {
+        WorldMessage ans = channel.acceptMessage(new WorldMessage(WorldMessage.Type.DETECTSAT, agentX, agentY, 0));
+        if (AgentLog.isEnabled(AgentLog.Level.TRACE)) {
+            AgentLog.trace("FINDER => detecting at : (" + agentX + "," + agentY + ")");
+        }
         return ans;
     }
 
@@ -301,33 +797,108 @@ public class EnvelopeFinder {
      **/
     public void processDetectorSensorAnswer(AMessage ans) throws
             ContradictionException,TimeoutException, IOException {
+        processDetectorSensorAnswer(WorldMessage.fromAMessage(ans));
+    }
 
-        int x = Integer.parseInt(ans.getComp(1));
-        int y = Integer.parseInt(ans.getComp(2));
-        String[] detector = ans.getComp(0).split(",");
-        Boolean[] sensorValues = {false,false,false,false,false};
-        for(int i = 0; i < detector.length; i++) {
-            if (detector[i].equals("1")) {
-                sensorValues[0] = true;
-            } else if (detector[i].equals("2")) {
-                sensorValues[1] = true;
-            } else if (detector[i].equals("3")) {
-                sensorValues[2] = true;
-            } else if (detector[i].equals("4")) {
-                sensorValues[3] = true;
-            } else if (detector[i].equals("5")) {
-                sensorValues[4] = true;
-            }
+    /**
+     * Typed version of processDetectorSensorAnswer, where the active
+     * detectors are read from the mask of the answer.
+     *
+     * @param ans message obtained to the query "Detects at (x,y)?"
+     *
+     * @throws IOException Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException if inserting contradictory information to solver.
+     * @throws TimeoutException if solver's isSatisfiable operation spends more
+     * 	                                 time computing than a certain timeout.
+     * @throws IllegalArgumentException if the message is not the detection
+     *                                  of a position of the world
+     **/
+    public void processDetectorSensorAnswer(WorldMessage ans) throws
+            ContradictionException,TimeoutException, IOException {
+
+        int x = ans.x;
+        int y = ans.y;
+        if (ans.type != WorldMessage.Type.DETECTED || x < 1 || x > WorldDim || y < 1 || y > WorldDim) {
+            throw new IllegalArgumentException("Not a detection answer of the world: " + ans.type + " " + x + " " + y);
+        }
+        AgentLog.trace("");
+        // The readings of a position never change, the ones already
+        // stored in the formula are not added again
+        int cell = (y-1)*WorldDim + (x-1);
+        if (detectorReadings[cell] == ans.value) {
+            return;
+        }
+        detectorReadings[cell] = ans.value;
+        addDetectorReading(cell, ans.value);
+    }
+
+    /**
+     * Add to the formula the reading of the five detectors at a position,
+     * in lazy mode with the detector variables and clauses of the position.
+     *
+     * @param cell index of the position, (y-1)*WorldDim + (x-1)
+     * @param mask mask of the active detectors, bit k-1 for detector k
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    void addDetectorReading(int cell, int mask) throws ContradictionException {
+        if (!wholeFormula) {
+            // The tiles read it from detectorReadings
+            return;
+        }
+        int firstVar = 5 * cell + 1;
+        if (lazyDetectors) {
+            firstVar = addLazyDetectors(cell);
         }
-        System.out.println("");
-        for(int i = 1; i <= sensorValues.length; i++) {
-            VecInt clause = new VecInt();
-            if(sensorValues[i-1] == true){
-                clause.push(((y-1)*(WorldLinealDim))+i+(x-1)*5);
-            }else{
-                clause.push(-1*((y-1)*(WorldLinealDim)+i+(x-1)*5));
+        for (int i = 1; i <= 5; i++) {
+            VecInt clause = new VecInt(1);
+            int var = firstVar + i - 1;
+            clause.push(((mask >> (i - 1)) & 1) != 0 ? var : -var);
+            addClauseToFormula(clause);
+        }
+    }
+
+    /**
+     * Allocate the detector variables of a position, if it is the first time
+     * it is sensed, and add the clauses of Gamma with them: an envelope at
+     * any position that a detector sees makes the detector true.
+     *
+     * @param cell index of the position, (y-1)*WorldDim + (x-1)
+     * @return the variable of detector 1 of the position (detector k is var + k - 1)
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    int addLazyDetectors(int cell) throws ContradictionException {
+        if (lazyDetectorVar[cell] == 0) {
+            lazyDetectorVar[cell] = numVariables + 1;
+            numVariables += 5;
+            if (solver != null) {
+                solver.newVar(numVariables);
             }
-            solver.addClause(clause);
+        }
+        int firstVar = lazyDetectorVar[cell];
+        int x = cell % WorldDim + 1;
+        int y = cell / WorldDim + 1;
+        // Positions seen by detectors 1 (x+1), 2 (y+1), 3 (x-1), 4 (y-1) and 5 (x,y)
+        for (int dy = -1; dy <= 1; dy++) {
+            addLazyDetectorClause(x + 1, y + dy, firstVar);
+            addLazyDetectorClause(x - 1, y + dy, firstVar + 2);
+        }
+        for (int dx = -1; dx <= 1; dx++) {
+            addLazyDetectorClause(x + dx, y + 1, firstVar + 1);
+            addLazyDetectorClause(x + dx, y - 1, firstVar + 3);
+        }
+        addLazyDetectorClause(x, y, firstVar + 4);
+        return firstVar;
+    }
+
+    /**
+     * Add the clause future(x,y) => detector, if (x,y) is inside the world
+     **/
+    private void addLazyDetectorClause(int x, int y, int detectorVar) throws ContradictionException {
+        if (x >= 1 && x <= WorldDim && y >= 1 && y <= WorldDim) {
+            VecInt clause = new VecInt(2);
+            clause.push(-coordToLineal(x, y, EnvelopeFutureOffset));
+            clause.push(detectorVar);
+            addClauseToFormula(clause);
         }
     }
 
@@ -344,20 +915,96 @@ public class EnvelopeFinder {
     public void addLastFutureClausesToPastClauses() throws ContradictionException, IOException, TimeoutException {
         for(int i = 0; !futureToPast.isEmpty() && i < futureToPast.size(); i++){
             if(!futureToPast.get(i).isEmpty()){
-                solver.addClause(futureToPast.get(i));
+                addClauseToFormula(futureToPast.get(i));
             }
         }
         futureToPast.clear();
     }
 
+    /**
+     * Build again the formula of the agent with Gamma and the minimal set of
+     * facts that gives the same conclusions: the detector readings of the
+     * sensed positions and the past clauses of the positions marked "X"
+     * (including the ones still pending in futureToPast). The clauses learned
+     * by the solver and the repeated facts are dropped, so the size of the
+     * formula is bounded by the size of the world. An agent without the
+     * formula of the whole world only has its tiles built again.
+     *
+     * @throws IOException Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    public void compactFormula() throws ContradictionException, IOException {
+        // The workers of a ParallelInference are built again from factClauses
+        addedClauses = null;
+        formulaVersion++;
+        if (!wholeFormula) {
+            // Only the tiles are built again, from the readings
+            futureToPast.clear();
+            return;
+        }
+        if (backend.isPropagation()) {
+            propagator = new DetectorPropagator(WorldDim);
+        } else {
+            solver = buildGamma();
+        }
+        addFacts();
+        futureToPast.clear();
+    }
+
+    /**
+     * Returns the clauses that, added to Gamma, give the current formula of
+     * the agent: the detector readings (with their detector clauses in lazy
+     * mode) and the past of the positions already crossed. The formula of
+     * the agent is not changed.
+     *
+     * @return the list of clauses
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    List<VecInt> factClauses() throws ContradictionException {
+        List<VecInt> facts = new ArrayList<>();
+        factSink = facts;
+        try {
+            addFacts();
+        } finally {
+            factSink = null;
+        }
+        return facts;
+    }
+
+    /**
+     * Add to the formula the detector readings and the past of the positions
+     * already crossed.
+     *
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    private void addFacts() throws ContradictionException {
+        for (int cell = 0; cell < WorldLinealDim; cell++) {
+            if (detectorReadings[cell] >= 0) {
+                addDetectorReading(cell, detectorReadings[cell]);
+            }
+        }
+        for (int i = 1; i <= WorldDim; i++) {
+            for (int j = 1; j <= WorldDim; j++) {
+                if (efstate.isCrossed(i, j)) {
+                    VecInt clause = new VecInt(1);
+                    clause.push(-coordToLineal(i, j, EnvelopePastOffset));
+                    addClauseToFormula(clause);
+                }
+            }
+        }
+    }
+
     /**
      * This function check for all the possible positions of the Envelope World, using the future variables related
      * to possible positions of Envelope, whether it is a logical consequence
+     * The questions are answered by the selected inference strategy.
      *
      * The logical consequences obtained are stored in the futureToPast list
      * but using past variables of the same positions
      *
      * If we check a position that there is no envelope we will put a cross in that cell
+     * In frontier mode the cells already crossed are not asked again, their past
+     * clause was already added to the solver in a previous step.
      *
      * @throws IOException Signals that an I/O exception of some sort has occurred.
      * @throws ContradictionException if inserting contradictory information to solver.
@@ -365,26 +1012,150 @@ public class EnvelopeFinder {
      * 	                        time computing than a certain timeout.
      **/
     public void performInferenceQuestions() throws TimeoutException, IOException, ContradictionException {
-        EnvelopePastOffset = WorldLinealDim * 5 + 1;
-        EnvelopeFutureOffset = WorldLinealDim * 6 + 1;
-        for (int i = 1; i <= WorldDim; i++) {
-            for (int j = 1; j <= WorldDim; j++) {
-                VecInt future = new VecInt();
-                int linealIndexPast = coordToLineal(i, j,EnvelopePastOffset);
-                int linealIndex = coordToLineal(i, j, EnvelopeFutureOffset);
-                future.insertFirst(linealIndex);
-                //It checks if Γ + future it is unsatisfiable
-                if (!(solver.isSatisfiable(future))) {
-                    VecInt past = new VecInt();
-                    // Adds the conclusion to the list regarding to variables from the past
-                    past.insertFirst(-linealIndexPast);
-                    futureToPast.add(past);
-                    past.clear();
-                    efstate.set(i, j, "X");
+        for (Position position : inference.findNoEnvelopePositions(this)) {
+            markNoEnvelope(position.x, position.y);
+        }
+    }
+
+    /**
+     * Mark a position without envelope in the state, and add its past
+     * clause to the list of the next step.
+     *
+     * @param x x coordinate of the position
+     * @param y y coordinate of the position
+     **/
+    void markNoEnvelope(int x, int y) {
+        if (efstate.isCrossed(x, y)) {
+            // Its past clause was already added in a previous step
+            return;
+        }
+        VecInt past = new VecInt();
+        // Adds the conclusion to the list regarding to variables from the past
+        past.push(-coordToLineal(x, y, EnvelopePastOffset));
+        futureToPast.add(past);
+        efstate.set(x, y, "X");
+    }
+
+    /**
+     * Perform the inference of the step with the cache. A reading only
+     * changes the positions of the 3x3 square around the agent, and a
+     * position is only concluded without envelope when a negative reading
+     * around it blocks it, so their conclusions depend on the readings of
+     * the 5x5 square around the agent. The clause "at least one envelope"
+     * is the only rule that relates positions far away, and it can only
+     * decide something when at most one position is not crossed yet, so
+     * the cache is not used then. If the evidence is in the cache its
+     * conclusions are marked without asking the inference strategy; if
+     * not, the strategy is asked and the positions of the 3x3 square marked
+     * "X" are stored in the cache.
+     *
+     * @throws IOException Signals that an I/O exception of some sort has occurred.
+     * @throws ContradictionException if inserting contradictory information to solver.
+     * @throws TimeoutException if the inference spends more time than its timeout.
+     **/
+    void performCachedInference() throws TimeoutException, IOException, ContradictionException {
+        if (agentX < 1 || agentY < 1 || detectorReadings[(agentY - 1) * WorldDim + (agentX - 1)] < 0
+                || efstate.numCrossed() >= WorldLinealDim - 1) {
+            performInferenceQuestions();
+            return;
+        }
+        String key = InferenceCache.evidenceKey(this, agentX, agentY);
+        int mask = inferenceCache.get(key);
+        if (mask < 0) {
+            performInferenceQuestions();
+        }
+        int found = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int x = agentX + dx, y = agentY + dy;
+                int bit = 1 << ((dy + 1) * 3 + (dx + 1));
+                if (x < 1 || x > WorldDim || y < 1 || y > WorldDim) {
+                    continue;
+                }
+                if (mask >= 0 && (mask & bit) != 0) {
+                    markNoEnvelope(x, y);
+                } else if (mask < 0 && efstate.isCrossed(x, y)) {
+                    found |= bit;
                 }
-                future.clear();
             }
         }
+        if (mask < 0) {
+            inferenceCache.put(key, found);
+        }
+    }
+
+    /**
+     * Check if the inference has to ask about the position (x,y).
+     * All positions are asked, except in frontier mode the ones already crossed.
+     *
+     * @param x x coordinate of the position
+     * @param y y coordinate of the position
+     * @return true if the position has to be checked
+     **/
+    public boolean isInferenceCandidate(int x, int y) {
+        return !(frontierInference && efstate.isCrossed(x, y));
+    }
+
+    /**
+     * Ask the solver if the formula is satisfiable with the given assumptions,
+     * counting the number of questions.
+     *
+     * @param assumptions literals assumed to be true
+     * @return true if Gamma + assumptions is satisfiable
+     * @throws TimeoutException if solver's isSatisfiable operation spends more
+     * 	                        time computing than a certain timeout.
+     **/
+    public boolean querySolver(VecInt assumptions) throws TimeoutException {
+        numSolverCalls++;
+        if (propagator != null) {
+            return propagator.isSatisfiable(assumptions);
+        }
+        return solver.isSatisfiable(assumptions);
+    }
+
+    /**
+     * Value of a variable in the model found by the last satisfiable question.
+     *
+     * @param var the variable identifier
+     * @return true if the variable is true in the model
+     **/
+    public boolean modelValue(int var) {
+        return propagator != null ? propagator.model(var) : solver.model(var);
+    }
+
+    /**
+     * Subset of the assumptions that made the last question unsatisfiable,
+     * if the solver can explain it.
+     *
+     * @return the literals of the explanation, or null if not available
+     **/
+    public IVecInt unsatExplanation() {
+        return propagator != null ? null : solver.unsatExplanation();
+    }
+
+    /**
+     * Add a clause with new knowledge of the agent to its formula, in the SAT
+     * solver or in the propagation engine.
+     *
+     * @param clause the clause to add
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    void addClauseToFormula(VecInt clause) throws ContradictionException {
+        if (!wholeFormula) {
+            return;
+        }
+        if (factSink != null) {
+            factSink.add(clause);
+            return;
+        }
+        if (addedClauses != null) {
+            addedClauses.add(clause);
+        }
+        if (propagator != null) {
+            propagator.addClause(clause);
+        } else {
+            solver.addClause(clause);
+        }
     }
 
     /**
@@ -404,29 +1175,120 @@ public class EnvelopeFinder {
         int totalNumVariables;
 
         // Set the total num of variables
-        totalNumVariables = WorldLinealDim * 7;
-        solver = SolverFactory.newDefault();
-        solver.setTimeout(3600);
+        totalNumVariables = lazyDetectors ? numVariables : WorldLinealDim * 7;
+        solver = backend.newSolver();
         solver.newVar(totalNumVariables);
-        // This variable is used to generate, in a particular sequential order,
-        // the variable indentifier of all the variables
-        actualLiteral = 1;
-
-        // This are the functions to add the different sets of clauses of Gamma to the solver object
-        createGoodClauses();
-        createALOClauses();
-        createSensor1();
-        createSensor2();
-        createSensor3();
-        createSensor4();
-        createSensor5();
+        if (lazyDetectors) {
+            // Only the clauses without detector variables, the other ones
+            // are added with the readings
+            for (int i = 1; i <= this.WorldDim; i++) {
+                for (int j = 1; j <= this.WorldDim; j++) {
+                    addGammaClause(-coordToLineal(i, j, EnvelopeFutureOffset), coordToLineal(i, j, EnvelopePastOffset));
+                }
+            }
+            addGammaClause(aloClause(EnvelopePastOffset));
+            addGammaClause(aloClause(EnvelopeFutureOffset));
+            return solver;
+        }
+        // The clauses are generated only once for every dimension, and then
+        // loaded from the cached template
+        GammaTemplate.forDimension(WorldDim, this).loadInto(solver);
 
         return solver;
     }
 
+    /**
+     * Generate all the clauses of Gamma into a template builder, instead of
+     * adding them to the solver. Used by GammaTemplate the first time a
+     * world dimension is needed.
+     *
+     * @param builder the template builder that receives the clauses
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    void generateGamma(GammaTemplate.Builder builder) throws ContradictionException {
+        gammaBuilder = builder;
+        try {
+            // This variable is used to generate, in a particular sequential order,
+            // the variable indentifier of all the variables
+            actualLiteral = 1;
+
+            // This are the functions to add the different sets of clauses of Gamma to the solver object
+            createGoodClauses();
+            createALOClauses();
+            createSensor1();
+            createSensor2();
+            createSensor3();
+            createSensor4();
+            createSensor5();
+        } finally {
+            gammaBuilder = null;
+        }
+    }
+
+    /**
+     * Add a clause of Gamma to the template being generated, or directly to
+     * the solver if the clause functions are called outside generateGamma.
+     *
+     * @param clause the clause to add
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    void addGammaClause(VecInt clause) throws ContradictionException {
+        if (gammaBuilder != null) {
+            gammaBuilder.add(clause);
+        } else {
+            solver.addClause(clause);
+        }
+    }
+
+    /**
+     * Add a binary clause of Gamma, without creating a clause object: it is
+     * written directly in the template, or in the scratch binary buffer that
+     * the solver copies.
+     *
+     * @param literal1 first literal of the clause
+     * @param literal2 second literal of the clause
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    void addGammaClause(int literal1, int literal2) throws ContradictionException {
+        if (gammaBuilder != null) {
+            gammaBuilder.add(literal1, literal2);
+        } else {
+            binaryScratch.clear();
+            binaryScratch.push(literal1);
+            binaryScratch.push(literal2);
+            solver.addClause(binaryScratch);
+        }
+    }
+
+    /**
+     * Build a new solver with the initial formula Gamma, without changing
+     * the solver of the agent. Used to create copies of the agent solver.
+     *
+     * @return a new solver object with Gamma
+     *
+     * @throws ContradictionException if inserting contradictory information to solver.
+     * @throws IOException Signals that an I/O exception of some sort has occurred.
+     **/
+    public ISolver buildGammaSolver() throws ContradictionException, IOException {
+        ISolver agentSolver = solver;
+        try {
+            return buildGamma();
+        } finally {
+            solver = agentSolver;
+        }
+    }
+
     /**
      * This function should add all the consistency clauses stored in the list
-     * with their pertinent clause time.
+     * with their pertinent clause time: a position without envelope in the
+     * past has no envelope in the future (past or not future).
+     *
+     * So a position marked "X" stays "X", and a position is only marked when
+     * a negative reading blocks it. The clauses used to be (not past or not
+     * future), which with the ALO clauses made the formula contradictory when
+     * a single position was left without a past conclusion while all the
+     * others were blocked, and then the agent marked every position,
+     * including the envelopes.
      *
      * @throws ContradictionException if inserting contradictory information to solver.
      *
@@ -437,12 +1299,9 @@ public class EnvelopeFinder {
         EnvelopeFutureOffset = WorldLinealDim * 6 + 1;
         for (int i = 1; i <= this.WorldDim; i++) {
             for (int j = 1; j <= this.WorldDim; j++) {
-                VecInt c = new VecInt();
                 int linealIndexPast = coordToLineal(i, j, EnvelopePastOffset);
                 int linealIndex = coordToLineal(i, j, EnvelopeFutureOffset);
-                c.insertFirst(-linealIndexPast);
-                c.insertFirst(-linealIndex);
-                solver.addClause(c);
+                addGammaClause(-linealIndex, linealIndexPast);
             }
         }
     }
@@ -456,21 +1315,33 @@ public class EnvelopeFinder {
      **/
 
     public void createALOClauses() throws ContradictionException {
-        VecInt past = new VecInt();
-        VecInt future = new VecInt();
         EnvelopeFutureOffset = WorldLinealDim * 6 + 1;
         EnvelopePastOffset = WorldLinealDim * 5 + 1;
+        addGammaClause(aloClause(EnvelopePastOffset));
+        addGammaClause(aloClause(EnvelopeFutureOffset));
+
+    }
+
+    /**
+     * Fill the scratch ALO buffer with the clause over all the positions of a
+     * subset of variables. The last position goes first, and then the rest in
+     * order, as the clause was built before with insertFirst.
+     *
+     * @param offset initial value for the subset of position variables
+     * @return the scratch buffer with the clause
+     **/
+    private VecInt aloClause(int offset) {
+        aloScratch.clear();
+        aloScratch.ensure(WorldLinealDim);
+        aloScratch.push(coordToLineal(WorldDim, WorldDim, offset));
         for (int i = 1; i <= this.WorldDim; i++){
             for (int j = 1; j <= this.WorldDim; j++) {
-                int linealIndexPast = coordToLineal(i, j, EnvelopePastOffset);
-                int linealIndex = coordToLineal(i, j, EnvelopeFutureOffset);
-                past.insertFirst(linealIndexPast);
-                future.insertFirst(linealIndex);
+                if (i != WorldDim || j != WorldDim) {
+                    aloScratch.push(coordToLineal(i, j, offset));
+                }
             }
         }
-        solver.addClause(past);
-        solver.addClause(future);
-
+        return aloScratch;
     }
 
 
@@ -487,25 +1358,16 @@ public class EnvelopeFinder {
         for(int j = 1; j <= WorldDim; j++) {
             for (int i = 1; i <= WorldDim; i++) {
                 if(i + 1 <= WorldDim && j - 1 > 0){
-                    VecInt badClause = new VecInt();
                     int linealIndex1 = coordToLineal(i + 1, j - 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex1);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex1, linealIndexSensor);
                 }
                 if(i + 1 <= WorldDim){
-                    VecInt badClause = new VecInt();
                     int linealIndex2 = coordToLineal(i + 1, j, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex2);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex2, linealIndexSensor);
                 }
                 if(i + 1 <= WorldDim && j + 1 <= WorldDim){
-                    VecInt badClause = new VecInt();
                     int linealIndex3 = coordToLineal(i + 1, j + 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex3);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex3, linealIndexSensor);
                 }
                 linealIndexSensor += 5;
             }
@@ -528,25 +1390,16 @@ public class EnvelopeFinder {
         for(int j = 1; j <= WorldDim; j++) {
             for (int i = 1; i <= WorldDim; i++) {
                 if(i + 1 <= WorldDim && j + 1 <= WorldDim){
-                    VecInt badClause = new VecInt();
                     int linealIndex1 = coordToLineal(i + 1, j + 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex1);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex1, linealIndexSensor);
                 }
                 if(j + 1 <= WorldDim){
-                    VecInt badClause = new VecInt();
                     int linealIndex2 = coordToLineal(i , j + 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex2);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex2, linealIndexSensor);
                 }
                 if(i - 1 > 0 && j + 1 <= WorldDim){
-                    VecInt badClause = new VecInt();
                     int linealIndex3 = coordToLineal(i - 1, j + 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex3);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex3, linealIndexSensor);
                 }
                 linealIndexSensor += 5;
             }
@@ -568,25 +1421,16 @@ public class EnvelopeFinder {
         for(int j = 1; j <= WorldDim; j++) {
             for (int i = 1; i <= WorldDim; i++) {
                 if(i - 1 > 0 && j - 1 > 0){
-                    VecInt badClause = new VecInt();
                     int linealIndex1 = coordToLineal(i - 1, j - 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex1);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex1, linealIndexSensor);
                 }
                 if(i - 1 > 0){
-                    VecInt badClause = new VecInt();
                     int linealIndex2 = coordToLineal(i - 1, j, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex2);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex2, linealIndexSensor);
                 }
                 if(i - 1 > 0 && j + 1 <= WorldDim){
-                    VecInt badClause = new VecInt();
                     int linealIndex3 = coordToLineal(i - 1, j + 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex3);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex3, linealIndexSensor);
                 }
                 linealIndexSensor += 5;
             }
@@ -608,25 +1452,16 @@ public class EnvelopeFinder {
         for(int j = 1; j <= WorldDim; j++) {
             for (int i = 1; i <= WorldDim; i++) {
                 if(i + 1 <= WorldDim && j - 1 > 0){
-                    VecInt badClause = new VecInt();
                     int linealIndex1 = coordToLineal(i + 1, j - 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex1);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex1, linealIndexSensor);
                 }
                 if(j - 1 > 0){
-                    VecInt badClause = new VecInt();
                     int linealIndex2 = coordToLineal(i, j - 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex2);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex2, linealIndexSensor);
                 }
                 if(i - 1 > 0 && j - 1 > 0){
-                    VecInt badClause = new VecInt();
                     int linealIndex3 = coordToLineal(i - 1, j - 1, EnvelopeFutureOffset);
-                    badClause.insertFirst(linealIndexSensor);
-                    badClause.insertFirst(-linealIndex3);
-                    solver.addClause(badClause);
+                    addGammaClause(-linealIndex3, linealIndexSensor);
                 }
                 linealIndexSensor += 5;
             }
@@ -646,13 +1481,10 @@ public class EnvelopeFinder {
     public void createSensor5() throws ContradictionException {
         Detector5Offset = WorldLinealDim * 4 + 1;
         EnvelopeFutureOffset = WorldLinealDim * 6 + 1;
-        for (int i = 0; i <= WorldLinealDim; i++) {
-            VecInt badClause = new VecInt();
+        for (int i = 0; i < WorldLinealDim; i++) {
             int linealIndexSensor = 5 * (i + 1);
             int linealIndex1 = i + EnvelopeFutureOffset;
-            badClause.insertFirst(linealIndexSensor);
-            badClause.insertFirst(-linealIndex1);
-            solver.addClause(badClause);
+            addGammaClause(-linealIndex1, linealIndexSensor);
         }
     }
 
@@ -9,6 +9,7 @@ package apryraz.eworld;
 
 
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import org.sat4j.specs.*;
@@ -28,7 +29,7 @@ public class EnvelopeWorld {
    * Each step is executed with the function runNextStep() agent.
    *
    * @param wDim the dimension of world
-   * @param numSteps num of steps to perform
+   * @param numSteps num of steps to perform, or 0 to perform all the steps of the file
    * @param fileSteps file name with sequence of steps to perform
    * @param fileEnvelopes file name with sequence of steps to perform
    *
@@ -43,7 +44,7 @@ public class EnvelopeWorld {
 public static void runStepsSequence( int wDim, int numSteps, String fileSteps, String fileEnvelopes ) throws
                                IOException,  ContradictionException, TimeoutException {
    // Make instances of EnvelopeFinder agent and environment object classes
-   EnvelopeFinder EAgent = new EnvelopeFinder(wDim);
+   EnvelopeFinder EAgent = newAgent(wDim);
    EnvelopeWorldEnv EnvAgent = new EnvelopeWorldEnv(wDim, fileEnvelopes);
 
   
@@ -51,21 +52,140 @@ public static void runStepsSequence( int wDim, int numSteps, String fileSteps, S
     // Set environment object into EAgent
     EAgent.setEnvironment(EnvAgent);
 
-    // Load list of steps into the Finder Agent
-    EAgent.loadListOfSteps(numSteps, fileSteps);
-    
+    // Load list of steps into the Finder Agent, and execute them
+    // With -Deworld.checkpoint=file the run continues from that checkpoint if it exists
+    runSteps(EAgent, numSteps, fileSteps, System.getProperty("eworld.checkpoint"));
+
+    // With the summary output only the final state is shown
+    if (AgentLog.getLevel() == AgentLog.Level.SUMMARY) {
+        EAgent.getState().printState();
+    }
+    AgentLog.summary("FINDER => " + EAgent.idNextStep + " steps done, " + EAgent.getState().numCrossed()
+                     + " positions without envelope");
+    AgentLog.summary("FINDER => metrics: " + EAgent.getMetrics());
+    if (EAgent.inferenceCache != null) {
+        AgentLog.summary("FINDER => " + EAgent.inferenceCache);
+    }
+    AgentLog.flush();
+}
+
+   /**
+   * Load the steps of a run into an agent with its environment, and execute
+   * them. Used by the main program and by BatchRunner for every scenario.
+   *
+   * @param EAgent the agent, with its environment already set
+   * @param numSteps num of steps to perform, or 0 to perform all the steps of the file
+   * @param fileSteps file name with sequence of steps to perform
+   * @param checkpoint file of the checkpoint of the run, or null for none
+   *
+   * @throws IOException Signals that an I/O exception of some sort has occurred.
+   * @throws ContradictionException if inserting contradictory information to solver.
+   * @throws TimeoutException if runNextStep operation spends more
+   * 	                       time computing than a certain timeout.
+   **/
+static void runSteps( EnvelopeFinder EAgent, int numSteps, String fileSteps, String checkpoint ) throws
+                               IOException,  ContradictionException, TimeoutException {
+    // Without a number of steps they are read while the agent moves, until the end of the file
+    // With -Deworld.explore=true the agent chooses its steps, at most numSteps if it is not 0,
+    // and the steps file is not read
+    if (Boolean.getBoolean("eworld.explore")) {
+        EAgent.explore();
+    } else if (numSteps > 0) {
+        EAgent.loadListOfSteps(numSteps, fileSteps);
+    } else {
+        EAgent.streamSteps(fileSteps);
+    }
+
+    // The run continues from the checkpoint if it exists,
+    // and saves it every eworld.checkpoint.interval steps (1000 by default)
+    if (checkpoint != null) {
+        if (new File(checkpoint).exists()) {
+            EAgent.restoreCheckpoint(checkpoint);
+            AgentLog.summary("FINDER => resuming from step " + EAgent.idNextStep);
+        }
+        EAgent.setCheckpoint(checkpoint, Integer.getInteger("eworld.checkpoint.interval", 1000));
+    }
+
     // Execute sequence of steps with the Agent
-    for (int step = 0; step < numSteps; step++) {
+    while (EAgent.hasNextStep() && (numSteps <= 0 || EAgent.idNextStep < numSteps)) {
+        EAgent.runNextStep();
+    }
+}
+
+   /**
+   * Solver backend selected with -Deworld.solver (the SAT4J default solver
+   * if it is not set)
+   *
+   * @return the backend of the agents of the main program
+   **/
+static SolverBackend solverBackend() {
+    return SolverBackend.forName(System.getProperty("eworld.solver", "Default"));
+}
+
+   /**
+   * Create the agent of the program, configured with the system properties
+   *
+   * @param wDim dimension of the world
+   * @return the agent
+   **/
+static EnvelopeFinder newAgent( int wDim ) {
+    EnvelopeFinder EAgent;
+    if (Integer.getInteger("eworld.tileSize", 0) > 0) {
+        // With -Deworld.tileSize=n the inference is done by tiles of n x n positions,
+        // and the agent does not build the formula of the whole world
+        EAgent = new EnvelopeFinder(wDim, solverBackend(), new TiledInference(Integer.getInteger("eworld.tileSize")));
+    } else {
+        // With -Deworld.solver=name the formula is stored in that SAT4J configuration (or "propagation")
+        // With -Deworld.lazyDetectors=true the detector clauses are only added for the sensed positions
+        EAgent = new EnvelopeFinder(wDim, solverBackend(), Boolean.getBoolean("eworld.lazyDetectors"));
+    }
+    // With -Deworld.inferenceCache=n the conclusions of up to n evidence patterns are cached
+    if (Integer.getInteger("eworld.inferenceCache", 0) > 0) {
+        EAgent.setInferenceCache(new InferenceCache(Integer.getInteger("eworld.inferenceCache")));
+    }
+    return EAgent;
+}
+
+   /**
+   * Execute all the steps of a binary world file, with its envelopes.
+   *
+   * @param worldFile name of the file written by WorldFile
+   *
+   * @throws IOException Signals that an I/O exception of some sort has occurred.
+   * @throws ContradictionException if inserting contradictory information to solver.
+   * @throws TimeoutException if runNextStep operation spends more
+   * 	                       time computing than a certain timeout.
+   **/
+public static void runWorldFile( String worldFile ) throws
+                               IOException,  ContradictionException, TimeoutException {
+    WorldFile world = WorldFile.load(worldFile);
+    EnvelopeFinder EAgent = newAgent(world.worldDim);
+    EAgent.setEnvironment(new EnvelopeWorldEnv(world));
+    EAgent.loadListOfSteps(world);
+    while (EAgent.hasNextStep()) {
         EAgent.runNextStep();
     }
+    if (AgentLog.getLevel() == AgentLog.Level.SUMMARY) {
+        EAgent.getState().printState();
+    }
+    AgentLog.summary("FINDER => " + EAgent.idNextStep + " steps done, " + EAgent.getState().numCrossed()
+                     + " positions without envelope");
+    if (!world.states.isEmpty()) {
+        boolean expected = EAgent.getState().equals(world.states.get(world.states.size() - 1));
+        AgentLog.summary("FINDER => final state " + (expected ? "is" : "is NOT") + " the expected one");
+    }
+    AgentLog.summary("FINDER => metrics: " + EAgent.getMetrics());
+    AgentLog.flush();
 }
 
     /**
     *  This function should load five arguments from the command line:
     *  arg[0] = dimension of the word
-    *  arg[1] = num of steps to perform
-    *  arg[2] = file name with sequence of steps to perform
+    *  arg[1] = num of steps to perform, 0 to perform all the steps of the file
+    *  arg[2] = file name with sequence of steps to perform, "-" for the standard input
+    *           (not read with -Deworld.explore=true, where the agent chooses its steps)
     *  arg[3] = file name with list of envelopes positions
+    *  With only one argument, it is the name of a binary world file (see WorldFile)
     *
     *
     * @throws IOException Signals that an I/O exception of some sort has occurred.
@@ -75,8 +195,10 @@ public static void runStepsSequence( int wDim, int numSteps, String fileSteps, S
     **/
 public static void main ( String[] args) throws IOException,  ContradictionException, TimeoutException {
 
-    if (args.length < 3) {
-        System.out.println("You must specify all arguments needed");
+    if (args.length == 1) {
+        runWorldFile(args[0]);
+    } else if (args.length < 4) {
+        AgentLog.error("You must specify all arguments needed");
     } else {
         int wDim = Integer.parseInt(args[0]);
         int numSteps = Integer.parseInt(args[1]);
@@ -9,19 +9,21 @@ package apryraz.eworld;
 
 import apryraz.eworld.AMessage;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Scanner;
+import java.io.IOException;
 
-public class EnvelopeWorldEnv {
+public class EnvelopeWorldEnv implements WorldChannel {
     /**
      * World dimension
-     * ArrayLst where we will put the positions of the envelopes
+     * Number of envelopes loaded into the world
      **/
     int WorldDim;
-    ArrayList<Position> envelopeLoc = new ArrayList<>();
+    int numEnvelopes;
+    /**
+     * Occupancy bitmap of the envelopes, over the world with a border of one
+     * position on every side, so the detectors of any position of the world
+     * are answered with a few probes. The bit of (x,y) is y*(WorldDim+2) + x
+     **/
+    long[] occupancy;
 
 
     /**
@@ -29,37 +31,42 @@ public class EnvelopeWorldEnv {
      *
      * @param dim dimension of the world
      * @param envelopesFile File with list of envelopes locations
+     * @throws IOException if the file can not be read
      **/
-    public EnvelopeWorldEnv(int dim, String envelopesFile) {
+    public EnvelopeWorldEnv(int dim, String envelopesFile) throws IOException {
         WorldDim = dim;
+        occupancy = new long[((WorldDim + 2) * (WorldDim + 2) + 63) / 64];
         loadEnvelopesLocations(envelopesFile);
     }
 
     /**
-     * Load the list of envelopes locations spliting each position in the array by the coma
-     * and adding every envelope position
+     * Class constructor with the envelopes of a world file
+     *
+     * @param world the world read from a binary world file
+     **/
+    public EnvelopeWorldEnv(WorldFile world) {
+        WorldDim = world.worldDim;
+        occupancy = new long[((WorldDim + 2) * (WorldDim + 2) + 63) / 64];
+        for (int i = 0; i < world.envelopes.length; i += 2) {
+            markEnvelope(world.envelopes[i], world.envelopes[i + 1]);
+        }
+        numEnvelopes = world.envelopes.length / 2;
+    }
+
+    /**
+     * Load the list of envelopes locations, reading the x,y pairs of the
+     * file with PositionFile, and mark every envelope position
      *
      * @param envelopesFile name of the file that should contain a
      * set of envelopes locations in a single line.
+     * @throws IOException if the file can not be read
      **/
-    public void loadEnvelopesLocations(String envelopesFile) {
-        try {
-            File myObj = new File(envelopesFile);
-            Scanner myReader = new Scanner(myObj);
-            while (myReader.hasNextLine()) {
-                String data = myReader.nextLine();
-                String[] envelopes = data.split(" ");
-                for(int i = 0; i< envelopes.length; i ++) {
-                    String[] cord = envelopes[i].split(",");
-                    Position envelopePosition = new Position(Integer.parseInt(cord[0]), Integer.parseInt(cord[1]));
-                    envelopeLoc.add(envelopePosition);
-                }
-            }
-            myReader.close();
-        } catch (FileNotFoundException e) {
-            System.out.println("Error opening Envelopes file");
-            e.printStackTrace();
+    public void loadEnvelopesLocations(String envelopesFile) throws IOException {
+        int[] coords = PositionFile.readPairs(envelopesFile);
+        for (int i = 0; i < coords.length; i += 2) {
+            markEnvelope(coords[i], coords[i + 1]);
         }
+        numEnvelopes += coords.length / 2;
     }
 
 
@@ -72,33 +79,46 @@ public class EnvelopeWorldEnv {
      * @return a msg with the answer to return to the agent
      **/
     public AMessage acceptMessage(AMessage msg) {
-        AMessage ans = new AMessage("voidmsg", "", "", "");
-
-        msg.showMessage();
-        if (msg.getComp(0).equals("moveto")) {
-            int nx = Integer.parseInt(msg.getComp(1));
-            int ny = Integer.parseInt(msg.getComp(2));
-
-            if (withinLimits(nx, ny)) {
-                int envelopes = 0;
-
-                ans = new AMessage("movedto", msg.getComp(1), msg.getComp(2),
-                        (Integer.valueOf(envelopes).toString()));
-            } else
-                ans = new AMessage("notmovedto", msg.getComp(1), msg.getComp(2), "");
-
-        } else {
-            if(msg.getComp(0).equals("detectsat")){
-                int nx = Integer.parseInt(msg.getComp(1));
-                int ny = Integer.parseInt(msg.getComp(2));
-                //Save the active sensor
-                String detectorRange = metalSensorReading(nx,ny);
-                //Send the message with the active sensor and positions x, y.
-                ans = new AMessage(detectorRange, msg.getComp(1), msg.getComp(2),"");
-            }
+        if (AgentLog.isEnabled(AgentLog.Level.TRACE)) {
+            msg.showMessage();
         }
-        return ans;
+        return answerMessage(WorldMessage.fromAMessage(msg)).toAMessage();
+    }
 
+    /**
+     * Typed version of acceptMessage, used by the agent in every step
+     *
+     * @param msg message sent by the Agent
+     * @return a msg with the answer to return to the agent
+     **/
+    public WorldMessage acceptMessage(WorldMessage msg) {
+        if (AgentLog.isEnabled(AgentLog.Level.TRACE)) {
+            msg.showMessage();
+        }
+        return answerMessage(msg);
+    }
+
+    /**
+     * Compute the answer to a message, for moveto and detectsat messages,
+     * and a voidmsg answer for the rest
+     *
+     * @param msg message sent by the Agent
+     * @return the answer to return to the agent
+     **/
+    WorldMessage answerMessage(WorldMessage msg) {
+        switch (msg.type) {
+            case MOVETO:
+                if (withinLimits(msg.x, msg.y)) {
+                    int envelopes = 0;
+                    return new WorldMessage(WorldMessage.Type.MOVEDTO, msg.x, msg.y, envelopes);
+                }
+                return new WorldMessage(WorldMessage.Type.NOTMOVEDTO, msg.x, msg.y, 0);
+            case DETECTSAT:
+                //Send the message with the active sensors and positions x, y.
+                return new WorldMessage(WorldMessage.Type.DETECTED, msg.x, msg.y, metalSensorReading(msg.x, msg.y));
+            default:
+                return WorldMessage.VOID;
+        }
     }
 
     /**
@@ -115,35 +135,66 @@ public class EnvelopeWorldEnv {
 
 
     /**
-     * Check for every envelope position the corresponding active sensor
-     * and their limits.
+     * Mark the position of an envelope in the occupancy bitmap. Envelopes
+     * outside the world and its border can not be seen by any detector.
      *
-     * @param x x coordinate of agent position
-     * @param y y coordinate of agent position
-     * @return the active sensor
+     * @param x x coordinate of the envelope
+     * @param y y coordinate of the envelope
+     **/
+    void markEnvelope(int x, int y) {
+        if (x >= 0 && x <= WorldDim + 1 && y >= 0 && y <= WorldDim + 1) {
+            int bit = y * (WorldDim + 2) + x;
+            occupancy[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Check if there is some envelope in the rectangle [x1,x2]x[y1,y2]
+     *
+     * @return true if some position of the rectangle has an envelope
      **/
-    private String metalSensorReading(int x, int y){
-        String sensorsActive = "";
-        for(int i = 1; i <= 5; i++) {
-            for (Position position : envelopeLoc) {
-                if((i == 1 && position.x - x == 1 && Math.abs(position.y - y) <= 1 || (x + 1 > WorldDim) && i ==1)){
-                    sensorsActive += "1,";
-                    break;
-                }else if((i == 2 && Math.abs(position.x - x) <= 1 && position.y - y == 1 || (y + 1 > WorldDim) && i ==2)){
-                    sensorsActive += "2,";
-                    break;
-                }else if((i == 3 && position.x - x == -1 && Math.abs(position.y - y) <= 1 || (x - 1 <= 0) && i ==3)){
-                    sensorsActive += "3,";
-                    break;
-                }else if((i == 4 && Math.abs(position.x - x) <= 1 && position.y - y == -1 || (y - 1 <= 0) && i == 4)){
-                    sensorsActive += "4,";
-                    break;
-                }else if(i == 5 && position.x == x && position.y == y){
-                    sensorsActive += "5,";
-                    break;
+    boolean anyEnvelope(int x1, int x2, int y1, int y2) {
+        for (int y = Math.max(y1, 0); y <= Math.min(y2, WorldDim + 1); y++) {
+            for (int x = Math.max(x1, 0); x <= Math.min(x2, WorldDim + 1); x++) {
+                int bit = y * (WorldDim + 2) + x;
+                if ((occupancy[bit >>> 6] & (1L << bit)) != 0) {
+                    return true;
                 }
             }
         }
+        return false;
+    }
+
+    /**
+     * Check the active detectors at the agent position, probing in the
+     * occupancy bitmap the positions that every detector sees. Detectors
+     * 1 to 4 are also active when the agent is at the corresponding limit
+     * of the world (if there is any envelope in the world).
+     *
+     * @param x x coordinate of agent position
+     * @param y y coordinate of agent position
+     * @return the mask of active detectors, bit k-1 for detector k
+     **/
+    int metalSensorReading(int x, int y){
+        int sensorsActive = 0;
+        if (numEnvelopes == 0) {
+            return sensorsActive;
+        }
+        if (x + 1 > WorldDim || anyEnvelope(x + 1, x + 1, y - 1, y + 1)) {
+            sensorsActive |= 1;
+        }
+        if (y + 1 > WorldDim || anyEnvelope(x - 1, x + 1, y + 1, y + 1)) {
+            sensorsActive |= 1 << 1;
+        }
+        if (x - 1 <= 0 || anyEnvelope(x - 1, x - 1, y - 1, y + 1)) {
+            sensorsActive |= 1 << 2;
+        }
+        if (y - 1 <= 0 || anyEnvelope(x - 1, x + 1, y - 1, y - 1)) {
+            sensorsActive |= 1 << 3;
+        }
+        if (anyEnvelope(x, x, y, y)) {
+            sensorsActive |= 1 << 4;
+        }
         return sensorsActive;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,163 @@
+package apryraz.eworld;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Source of steps that explores the world on its own, instead of following
+ * a steps file. The next position is the one whose detectors see more "?"
+ * positions: the five detectors cover the 3x3 square around the agent, so
+ * a negative reading there discards all of them. Positions already sensed
+ * are not chosen again, as their readings do not change. A position where
+ * detector 5 found an envelope stops counting as unknown, and the
+ * exploration ends when no position left would see any unknown position.
+ *
+ * The gain of every position is kept up to date with the positions marked
+ * "X" since the last move, and the positions are kept in lists by gain, so
+ * choosing the next one does not scan the world.
+ **/
+public class ExplorationPlanner implements Iterator<Position> {
+
+    /**
+     * Agent that follows the planner, and its state at the last update
+     **/
+    EnvelopeFinder agent;
+    EFState known;
+    int wDim;
+    /**
+     * Number of "?" positions in the 3x3 square of every position, with
+     * index (x-1)*wDim + (y-1) as in EFState
+     **/
+    byte[] gain;
+    /**
+     * Doubly linked lists of the positions not sensed yet, one for every
+     * gain from 0 to 9. prev is -2 for the positions out of the lists
+     **/
+    int[] head = new int[10];
+    int[] next, prev;
+    int best;
+    /**
+     * Last position chosen, -1 before the first one
+     **/
+    int lastChosen = -1;
+
+    /**
+     * Class constructor
+     *
+     * @param agent the agent that performs the moves chosen by the planner
+     **/
+    public ExplorationPlanner(EnvelopeFinder agent) {
+        this.agent = agent;
+        wDim = agent.WorldDim;
+        int size = wDim * wDim;
+        known = new EFState(wDim);
+        gain = new byte[size];
+        next = new int[size];
+        prev = new int[size];
+        Arrays.fill(head, -1);
+        for (int x = 1; x <= wDim; x++) {
+            for (int y = 1; y <= wDim; y++) {
+                int cells = (Math.min(x + 1, wDim) - Math.max(x - 1, 1) + 1)
+                          * (Math.min(y + 1, wDim) - Math.max(y - 1, 1) + 1);
+                int c = (x - 1) * wDim + (y - 1);
+                gain[c] = (byte) cells;
+                link(c);
+            }
+        }
+        best = 9;
+        update();
+    }
+
+    private void link(int c) {
+        int g = gain[c];
+        prev[c] = -1;
+        next[c] = head[g];
+        if (head[g] >= 0) {
+            prev[head[g]] = c;
+        }
+        head[g] = c;
+    }
+
+    private void unlink(int c) {
+        if (prev[c] >= 0) {
+            next[prev[c]] = next[c];
+        } else {
+            head[gain[c]] = next[c];
+        }
+        if (next[c] >= 0) {
+            prev[next[c]] = prev[c];
+        }
+        prev[c] = -2;
+    }
+
+    /**
+     * Lower the gain of the positions that see the positions marked "X"
+     * by the agent since the last update, and the envelope found at the
+     * last position chosen
+     **/
+    void update() {
+        for (Position cell : known.diff(agent.efstate)) {
+            known.set(cell.x, cell.y, "X");
+            resolve(cell.x, cell.y);
+        }
+        if (lastChosen >= 0) {
+            int x = lastChosen / wDim + 1, y = lastChosen % wDim + 1;
+            // The agent stores its readings with index (y-1)*wDim + (x-1)
+            int reading = agent.detectorReadings[(y - 1) * wDim + (x - 1)];
+            if (reading >= 0) {
+                // Detector 5 sees only the position of the agent
+                if ((reading & 16) != 0) {
+                    resolve(x, y);
+                }
+                lastChosen = -1;
+            }
+        }
+        while (best > 0 && head[best] < 0) {
+            best--;
+        }
+    }
+
+    /**
+     * Lower the gain of the positions that see (cx,cy)
+     **/
+    private void resolve(int cx, int cy) {
+        for (int x = Math.max(cx - 1, 1); x <= Math.min(cx + 1, wDim); x++) {
+            for (int y = Math.max(cy - 1, 1); y <= Math.min(cy + 1, wDim); y++) {
+                int c = (x - 1) * wDim + (y - 1);
+                if (prev[c] == -2) {
+                    gain[c]--;
+                } else {
+                    unlink(c);
+                    gain[c]--;
+                    link(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if there is a position that would see any "?" position
+     *
+     * @return true if the exploration has not ended
+     **/
+    public boolean hasNext() {
+        update();
+        return best > 0;
+    }
+
+    /**
+     * Choose the next position to sense, and remove it from the candidates
+     *
+     * @return the position with more "?" positions around it
+     **/
+    public Position next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int c = head[best];
+        unlink(c);
+        lastChosen = c;
+        return new Position(c / wDim + 1, c % wDim + 1);
+    }
+}
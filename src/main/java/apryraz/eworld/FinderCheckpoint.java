@@ -0,0 +1,131 @@
+package apryraz.eworld;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.sat4j.specs.ContradictionException;
+
+/**
+ * Snapshot of the knowledge of an EnvelopeFinder agent, to continue a run
+ * later without performing again its steps. It stores the state (EFState),
+ * the detector readings of every sensed position, the position of the agent
+ * and the index of its next step. The past clauses pending in futureToPast
+ * are the positions marked "X" of the state, so they are not stored apart.
+ *
+ * When it is restored the formula is built again from Gamma and these facts
+ * (see EnvelopeFinder.compactFormula), which gives the same conclusions
+ * than the formula of the agent when it was saved.
+ **/
+public class FinderCheckpoint {
+
+    /**
+     * Identifier at the start of the checkpoint files
+     **/
+    static final int FILE_MAGIC = 0x45464331;
+
+    /**
+     * Write the checkpoint of an agent. The file is written with another
+     * name and then renamed, so a crash while saving keeps the previous one.
+     * Where the file system can not rename atomically it is replaced with a
+     * plain rename.
+     *
+     * @param agent the agent
+     * @param file the checkpoint file
+     * @throws IOException Signals that an I/O exception of some sort has occurred.
+     **/
+    public static void save(EnvelopeFinder agent, File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(agent.WorldDim);
+            out.writeInt(agent.idNextStep);
+            out.writeInt(agent.agentX);
+            out.writeInt(agent.agentY);
+            out.writeInt(agent.envelopeFound);
+            out.writeLong(agent.numSolverCalls);
+            out.writeInt(agent.stepsSinceCompaction);
+            for (long word : agent.efstate.crossed) {
+                out.writeLong(word);
+            }
+            for (int mask : agent.detectorReadings) {
+                out.writeByte(mask);
+            }
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Restore a checkpoint into an agent of the same dimension, that must
+     * have its steps already loaded. The whole file is read and checked
+     * before the agent is changed, so a damaged checkpoint leaves it as it
+     * was. Then the steps done before the checkpoint are skipped, and the
+     * formula of the agent is built again.
+     *
+     * @param agent the agent
+     * @param file the checkpoint file
+     * @throws IOException if the file can not be read, it is not a checkpoint,
+     *                     it is for another dimension or its next step is not
+     *                     one of the steps of the agent
+     * @throws ContradictionException if the facts contradict Gamma
+     **/
+    public static void restore(EnvelopeFinder agent, File file) throws IOException, ContradictionException {
+        int idNextStep, agentX, agentY, envelopeFound, stepsSinceCompaction;
+        long numSolverCalls;
+        long[] crossed = new long[agent.efstate.crossed.length];
+        int[] detectorReadings = new int[agent.detectorReadings.length];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a checkpoint file: " + file);
+            }
+            int WDim = in.readInt();
+            if (WDim != agent.WorldDim) {
+                throw new IOException("Checkpoint of a world of dimension " + WDim + ": " + file);
+            }
+            idNextStep = in.readInt();
+            agentX = in.readInt();
+            agentY = in.readInt();
+            envelopeFound = in.readInt();
+            numSolverCalls = in.readLong();
+            stepsSinceCompaction = in.readInt();
+            for (int k = 0; k < crossed.length; k++) {
+                crossed[k] = in.readLong();
+            }
+            for (int cell = 0; cell < detectorReadings.length; cell++) {
+                detectorReadings[cell] = in.readByte();
+            }
+        }
+        // Streamed steps can only be skipped forward
+        boolean streaming = agent.stepSource != null;
+        if (idNextStep < (streaming ? agent.idNextStep : 0) || (!streaming && idNextStep > agent.numMovements)) {
+            throw new IOException("Checkpoint at step " + idNextStep + ", out of the steps of the agent: " + file);
+        }
+        try {
+            agent.skipSteps(idNextStep);
+        } catch (IllegalStateException ex) {
+            // The streamed steps end before the checkpoint
+            throw new IOException("Checkpoint at step " + idNextStep + ": " + ex.getMessage() + ": " + file, ex);
+        }
+        agent.agentX = agentX;
+        agent.agentY = agentY;
+        agent.envelopeFound = envelopeFound;
+        agent.numSolverCalls = numSolverCalls;
+        agent.stepsSinceCompaction = stepsSinceCompaction;
+        System.arraycopy(crossed, 0, agent.efstate.crossed, 0, crossed.length);
+        System.arraycopy(detectorReadings, 0, agent.detectorReadings, 0, detectorReadings.length);
+        agent.compactFormula();
+    }
+}
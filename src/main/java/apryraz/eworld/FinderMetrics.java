@@ -0,0 +1,140 @@
+package apryraz.eworld;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timers of the steps of an EnvelopeFinder agent: time spent in
+ * every phase of runNextStep (adding the past clauses, moving, detecting
+ * and inference), satisfiability questions, conflicts and propagations of
+ * the SAT4J solver, clauses in the solver and positions resolved.
+ *
+ * The times and counters are updated once per step by the agent. The
+ * statistics and the clauses of the solver are only asked to the agent when
+ * they are read, as SAT4J builds its statistics by reflection, so they can
+ * be taken in the middle of a step. All of them can be read from the
+ * getters or from JMX after calling registerMBean.
+ **/
+public class FinderMetrics implements FinderMetricsMBean {
+
+    volatile long steps;
+    volatile long addPastNanos, moveNanos, detectNanos, inferenceNanos, lastStepNanos;
+    volatile long solverCalls, lastStepSolverCalls;
+    volatile long positionsResolved, lastStepPositionsResolved;
+    /**
+     * Agent measured, asked for the statistics of its solver
+     **/
+    final EnvelopeFinder agent;
+
+    /**
+     * Class constructor
+     *
+     * @param agent the agent measured
+     **/
+    FinderMetrics(EnvelopeFinder agent) {
+        this.agent = agent;
+    }
+
+    /**
+     * Record the measures of a step
+     *
+     * @param addPast time adding the past clauses
+     * @param move time moving
+     * @param detect time detecting and adding the detector clauses
+     * @param inference time of the inference questions
+     * @param calls satisfiability questions in the step
+     * @param resolved positions marked "X" in the step
+     * @param totalResolved positions marked "X" after the step
+     **/
+    synchronized void recordStep(long addPast, long move, long detect, long inference, long calls,
+                                 long resolved, long totalResolved) {
+        steps++;
+        addPastNanos += addPast;
+        moveNanos += move;
+        detectNanos += detect;
+        inferenceNanos += inference;
+        lastStepNanos = addPast + move + detect + inference;
+        solverCalls += calls;
+        lastStepSolverCalls = calls;
+        positionsResolved = totalResolved;
+        lastStepPositionsResolved = resolved;
+    }
+
+    /**
+     * Register these metrics in the platform MBean server, with the name
+     * apryraz.eworld:type=EnvelopeFinder,name=agentName
+     *
+     * @param agentName name to identify the agent
+     * @return the name of the registered MBean
+     * @throws JMException if the MBean can not be registered
+     **/
+    public ObjectName registerMBean(String agentName) throws JMException {
+        ObjectName name = new ObjectName("apryraz.eworld:type=EnvelopeFinder,name=" + ObjectName.quote(agentName));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, name);
+        return name;
+    }
+
+    /**
+     * Remove a registration done with registerMBean
+     *
+     * @param name the name returned by registerMBean
+     * @throws JMException if the MBean can not be unregistered
+     **/
+    public static void unregisterMBean(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    public long getSteps() { return steps; }
+
+    public long getAddPastNanos() { return addPastNanos; }
+
+    public long getMoveNanos() { return moveNanos; }
+
+    public long getDetectNanos() { return detectNanos; }
+
+    public long getInferenceNanos() { return inferenceNanos; }
+
+    public long getLastStepNanos() { return lastStepNanos; }
+
+    public long getSolverCalls() { return solverCalls; }
+
+    public long getLastStepSolverCalls() { return lastStepSolverCalls; }
+
+    public long getConflicts() { return solverStatistic("conflicts"); }
+
+    public long getPropagations() { return solverStatistic("propagations"); }
+
+    public long getSolverClauses() { return agent.solverClauses(); }
+
+    public long getPositionsResolved() { return positionsResolved; }
+
+    public long getLastStepPositionsResolved() { return lastStepPositionsResolved; }
+
+    /**
+     * Summary of the metrics in one line, times in milliseconds
+     **/
+    public synchronized String toString() {
+        return "steps=" + steps
+                + " addPast=" + addPastNanos / 1000000 + "ms"
+                + " move=" + moveNanos / 1000000 + "ms"
+                + " detect=" + detectNanos / 1000000 + "ms"
+                + " inference=" + inferenceNanos / 1000000 + "ms"
+                + " solverCalls=" + solverCalls
+                + " conflicts=" + getConflicts()
+                + " propagations=" + getPropagations()
+                + " solverClauses=" + getSolverClauses()
+                + " resolved=" + positionsResolved;
+    }
+
+    /**
+     * Returns a statistic of the solver of the agent, or 0 if it has none
+     **/
+    private long solverStatistic(String name) {
+        Number value = agent.solverStatistics().get(name);
+        return value == null ? 0 : value.longValue();
+    }
+}
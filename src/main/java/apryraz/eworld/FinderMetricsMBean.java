@@ -0,0 +1,35 @@
+package apryraz.eworld;
+
+/**
+ * JMX interface of the metrics of an EnvelopeFinder agent. All the times
+ * are in nanoseconds, and all the values are totals since the agent was
+ * created, except the ones of the last step.
+ **/
+public interface FinderMetricsMBean {
+
+    long getSteps();
+
+    long getAddPastNanos();
+
+    long getMoveNanos();
+
+    long getDetectNanos();
+
+    long getInferenceNanos();
+
+    long getLastStepNanos();
+
+    long getSolverCalls();
+
+    long getLastStepSolverCalls();
+
+    long getConflicts();
+
+    long getPropagations();
+
+    long getSolverClauses();
+
+    long getPositionsResolved();
+
+    long getLastStepPositionsResolved();
+}
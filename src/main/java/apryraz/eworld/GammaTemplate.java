@@ -0,0 +1,315 @@
+package apryraz.eworld;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.IVecInt;
+
+/**
+ * The clauses of the initial formula Gamma of an EnvelopeFinder agent for a
+ * world dimension, stored as a compact clause arena: an int array with, for
+ * every clause, its number of literals followed by the literals.
+ *
+ * Gamma only depends on the world dimension, so the template of every
+ * dimension is generated once and cached, and every new agent just loads it
+ * into its solver. Only the templates of the last MAX_CACHED dimensions used
+ * are kept in memory. Optionally the templates can be persisted in a
+ * directory, so they are not generated again in other executions.
+ **/
+public class GammaTemplate {
+
+    /**
+     * Identifier at the start of the template files, changed when the
+     * clauses of Gamma change so older files are generated again
+     **/
+    static final int FILE_MAGIC = 0x47414d33;
+    /**
+     * Size in bytes of the header of the template files
+     **/
+    static final int HEADER_BYTES = 20;
+    /**
+     * Maximum number of templates kept in memory, as the arena of a
+     * dimension has about WDim*WDim*48 ints
+     **/
+    static final int MAX_CACHED = 4;
+    /**
+     * Templates already built, by world dimension, from the least to the
+     * most recently used. Guarded by its own lock
+     **/
+    static final Map<Integer, GammaTemplate> cache = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Directory where templates are persisted, or null to keep them only in memory
+     **/
+    static volatile File cacheDirectory;
+
+    /**
+     * Dimension of the world, number of variables and number of clauses
+     **/
+    final int WorldDim, numVariables, numClauses;
+    /**
+     * The clause arena: size of clause, literals, size of clause, literals ...
+     **/
+    final int[] arena;
+
+    GammaTemplate(int WorldDim, int numVariables, int numClauses, int[] arena) {
+        this.WorldDim = WorldDim;
+        this.numVariables = numVariables;
+        this.numClauses = numClauses;
+        this.arena = arena;
+    }
+
+    /**
+     * Get the template of a world dimension, from the cache, from the cache
+     * directory, or generating it with the clause functions of the agent.
+     *
+     * @param WDim the dimension of the Envelope World
+     * @param generator agent used to generate the clauses if the template is not available
+     * @return the template of Gamma for that dimension
+     **/
+    static GammaTemplate forDimension(int WDim, EnvelopeFinder generator) {
+        GammaTemplate template;
+        synchronized (cache) {
+            template = cache.get(WDim);
+        }
+        if (template == null) {
+            template = readOrGenerate(WDim, generator);
+            synchronized (cache) {
+                GammaTemplate previous = cache.get(WDim);
+                if (previous != null) {
+                    return previous;
+                }
+                cache.put(WDim, template);
+                if (cache.size() > MAX_CACHED) {
+                    // Forget the least recently used dimension
+                    Iterator<Integer> eldest = cache.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Read the template from the cache directory, or generate (and save) it
+     **/
+    private static GammaTemplate readOrGenerate(int WDim, EnvelopeFinder generator) {
+        File directory = cacheDirectory;
+        File file = directory == null ? null : new File(directory, "gamma-" + WDim + ".bin");
+        if (file != null && file.exists()) {
+            try {
+                GammaTemplate template = load(file);
+                if (template.WorldDim == WDim) {
+                    return template;
+                }
+            } catch (IOException ex) {
+                // Not a valid template file, generate it again
+            }
+        }
+        Builder builder = new Builder(WDim);
+        try {
+            generator.generateGamma(builder);
+        } catch (ContradictionException ex) {
+            throw new IllegalStateException("Gamma can not be contradictory", ex);
+        }
+        GammaTemplate template = builder.build();
+        if (file != null) {
+            try {
+                template.save(file);
+            } catch (IOException ex) {
+                AgentLog.error("MSG.   => Gamma template could not be saved in " + file);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * Set the directory where the templates are saved and read from.
+     *
+     * @param directory the directory, or null to keep templates only in memory
+     **/
+    public static void setCacheDirectory(File directory) {
+        cacheDirectory = directory;
+    }
+
+    /**
+     * Remove all the templates cached in memory.
+     **/
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Add all the clauses of the template to a solver. The same buffer is used
+     * for all the clauses, as the solver copies the literals.
+     *
+     * @param solver the solver where Gamma is loaded
+     * @throws ContradictionException if inserting contradictory information to solver.
+     **/
+    public void loadInto(ISolver solver) throws ContradictionException {
+        solver.newVar(numVariables);
+        solver.setExpectedNumberOfClauses(numClauses);
+        VecInt clause = new VecInt();
+        int pos = 0;
+        while (pos < arena.length) {
+            int size = arena[pos++];
+            clause.clear();
+            for (int k = 0; k < size; k++) {
+                clause.push(arena[pos++]);
+            }
+            solver.addClause(clause);
+        }
+    }
+
+    /**
+     * Save the template in a binary file
+     *
+     * @param file the file to write
+     * @throws IOException Signals that an I/O exception of some sort has occurred.
+     **/
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(WorldDim);
+            out.writeInt(numVariables);
+            out.writeInt(numClauses);
+            out.writeInt(arena.length);
+            for (int value : arena) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    /**
+     * Read a template saved with save. The header is checked against the
+     * dimension and the size of the file before the arena is allocated, and
+     * every clause of the arena is checked, so a damaged file is never
+     * loaded into a solver.
+     *
+     * @param file the file to read
+     * @return the template stored in the file
+     * @throws IOException if the file can not be read or it is not a valid template
+     **/
+    public static GammaTemplate load(File file) throws IOException {
+        long fileSize = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a Gamma template file: " + file);
+            }
+            int WDim = in.readInt();
+            int numVariables = in.readInt();
+            int numClauses = in.readInt();
+            int arenaLength = in.readInt();
+            if (WDim < 1 || (long) WDim * WDim * 7 > Integer.MAX_VALUE
+                    || numVariables != WDim * WDim * 7) {
+                throw invalid(file, "dimension " + WDim + " with " + numVariables + " variables");
+            }
+            if (arenaLength < 0 || 4L * arenaLength != fileSize - HEADER_BYTES) {
+                throw invalid(file, "arena of " + arenaLength + " ints in " + fileSize + " bytes");
+            }
+            if (numClauses < 0 || numClauses > arenaLength / 2) {
+                throw invalid(file, numClauses + " clauses in " + arenaLength + " ints");
+            }
+            int[] arena = new int[arenaLength];
+            for (int k = 0; k < arena.length; k++) {
+                arena[k] = in.readInt();
+            }
+            int pos = 0;
+            int clauses = 0;
+            while (pos < arena.length) {
+                int size = arena[pos++];
+                if (size < 1 || size > arena.length - pos) {
+                    throw invalid(file, "clause " + (clauses + 1) + " of size " + size);
+                }
+                for (int k = 0; k < size; k++, pos++) {
+                    if (arena[pos] == 0 || arena[pos] < -numVariables || arena[pos] > numVariables) {
+                        throw invalid(file, "literal " + arena[pos] + " in clause " + (clauses + 1));
+                    }
+                }
+                clauses++;
+            }
+            if (clauses != numClauses) {
+                throw invalid(file, clauses + " clauses instead of " + numClauses);
+            }
+            return new GammaTemplate(WDim, numVariables, numClauses, arena);
+        }
+    }
+
+    private static IOException invalid(File file, String what) {
+        return new IOException("Invalid Gamma template file " + file + ": " + what);
+    }
+
+    /**
+     * Builder that receives the clauses of Gamma and stores them in an arena
+     **/
+    static class Builder {
+        int WorldDim, numClauses, size;
+        int[] arena;
+
+        Builder(int WDim) {
+            WorldDim = WDim;
+            arena = new int[WDim * WDim * 48 + 16];
+        }
+
+        /**
+         * Append a clause to the arena
+         *
+         * @param clause the literals of the clause
+         **/
+        void add(IVecInt clause) {
+            ensure(clause.size() + 1);
+            arena[size++] = clause.size();
+            for (int k = 0; k < clause.size(); k++) {
+                arena[size++] = clause.get(k);
+            }
+            numClauses++;
+        }
+
+        /**
+         * Append a binary clause to the arena
+         *
+         * @param literal1 first literal of the clause
+         * @param literal2 second literal of the clause
+         **/
+        void add(int literal1, int literal2) {
+            ensure(3);
+            arena[size++] = 2;
+            arena[size++] = literal1;
+            arena[size++] = literal2;
+            numClauses++;
+        }
+
+        /**
+         * Empty the builder to generate again, keeping the arena memory
+         **/
+        void reset() {
+            size = 0;
+            numClauses = 0;
+        }
+
+        private void ensure(int more) {
+            if (size + more > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(arena.length * 2, size + more));
+            }
+        }
+
+        GammaTemplate build() {
+            return new GammaTemplate(WorldDim, WorldDim * WorldDim * 7, numClauses, Arrays.copyOf(arena, size));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package apryraz.eworld;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of the conclusions of the inference after a reading.
+ *
+ * A position is marked "X" when a detector that gave a negative reading
+ * sees it, so the conclusions about the 3x3 square around the agent depend
+ * on the readings of the 5x5 square around it. The key of the cache is that
+ * evidence (the reading of every position of the 5x5 square, not sensed or
+ * out of the world) and the value is the mask of the positions of the 3x3
+ * square marked "X" after the inference. Positions are relative to the
+ * agent, so the same pattern found at another place or in another world
+ * gives a hit. The clause "at least one envelope" relates all the
+ * positions of the world, so the agent does not use the cache when at
+ * most one position is left not crossed (see
+ * EnvelopeFinder.performCachedInference). The cache can be shared by
+ * several agents.
+ **/
+public class InferenceCache {
+
+    /**
+     * Value of the positions out of the world in the keys
+     **/
+    static final int OUT_OF_WORLD = -2;
+
+    int capacity;
+    long hits, misses;
+    Map<String, Integer> entries;
+
+    /**
+     * Class constructor
+     *
+     * @param capacity maximum number of patterns stored
+     **/
+    public InferenceCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The cache must store at least one pattern");
+        }
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > InferenceCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Build the key of the evidence around the position (x,y) of an agent
+     *
+     * @param finder the agent, with its readings
+     * @param x x coordinate of the center
+     * @param y y coordinate of the center
+     * @return the readings of the 5x5 square around (x,y)
+     **/
+    static String evidenceKey(EnvelopeFinder finder, int x, int y) {
+        char[] key = new char[25];
+        int k = 0;
+        for (int j = y - 2; j <= y + 2; j++) {
+            for (int i = x - 2; i <= x + 2; i++) {
+                int value = OUT_OF_WORLD;
+                if (i >= 1 && i <= finder.WorldDim && j >= 1 && j <= finder.WorldDim) {
+                    value = finder.detectorReadings[(j - 1) * finder.WorldDim + (i - 1)];
+                }
+                key[k++] = (char) (value - OUT_OF_WORLD);
+            }
+        }
+        return new String(key);
+    }
+
+    /**
+     * Find the conclusions of an evidence pattern
+     *
+     * @param key the evidence, from evidenceKey
+     * @return mask of the positions of the 3x3 square without envelope, bit
+     *         (dy+1)*3 + (dx+1) for the position (x+dx,y+dy); or -1 if the
+     *         pattern is not stored
+     **/
+    public synchronized int get(String key) {
+        Integer mask = entries.get(key);
+        if (mask == null) {
+            misses++;
+            return -1;
+        }
+        hits++;
+        return mask;
+    }
+
+    /**
+     * Store the conclusions of an evidence pattern
+     *
+     * @param key the evidence, from evidenceKey
+     * @param mask mask of the positions of the 3x3 square without envelope
+     **/
+    public synchronized void put(String key, int mask) {
+        entries.put(key, mask);
+    }
+
+    /**
+     * Number of questions answered by the cache
+     *
+     * @return the number of hits
+     **/
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of questions not answered by the cache
+     *
+     * @return the number of misses
+     **/
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * One line summary of the use of the cache
+     **/
+    public synchronized String toString() {
+        return "CACHE => " + hits + " hits, " + misses + " misses, " + entries.size() + "/" + capacity + " patterns";
+    }
+}
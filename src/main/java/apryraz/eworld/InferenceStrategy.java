@@ -0,0 +1,25 @@
+package apryraz.eworld;
+
+import java.util.List;
+
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * Interface for the different ways of answering the inference questions of
+ * the EnvelopeFinder agent: for every position of the world, whether it is a
+ * logical consequence that there is no envelope at it (in the future variables).
+ **/
+public interface InferenceStrategy {
+
+    /**
+     * Find the positions of the world where it is a logical consequence
+     * of the formula of the agent that there is no envelope. Only the positions
+     * accepted by finder.isInferenceCandidate need to be returned.
+     *
+     * @param finder the agent, with its solver and current state
+     * @return the list of positions without envelope
+     * @throws TimeoutException if solver's isSatisfiable operation spends more
+     *                          time computing than a certain timeout.
+     **/
+    List<Position> findNoEnvelopePositions(EnvelopeFinder finder) throws TimeoutException;
+}
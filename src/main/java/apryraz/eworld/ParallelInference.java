@@ -0,0 +1,174 @@
+package apryraz.eworld;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * Inference that asks the same questions than SequentialInference, but
+ * partitions the positions of the world across a pool of worker solvers
+ * that are asked concurrently in a ForkJoinPool.
+ *
+ * Every worker solver is built with Gamma and the current facts of the
+ * agent, and before every inference it receives the clauses added to the
+ * agent formula since the last one (detector readings and past
+ * conclusions), so all of them store the same formula than the agent
+ * solver. The agent only logs those clauses while it uses this strategy,
+ * and the log is emptied once the workers have them. The workers belong to
+ * one agent: if the strategy is used with another agent, or the agent
+ * compacts its formula, they are built again.
+ **/
+public class ParallelInference implements InferenceStrategy {
+
+    /**
+     * Pool where the questions of the workers are run
+     **/
+    ForkJoinPool pool;
+    /**
+     * Number of worker solvers, and the solvers themselves
+     **/
+    int numWorkers;
+    List<ISolver> workers = new ArrayList<>();
+    /**
+     * Agent that owns the workers, and version of its formula
+     **/
+    EnvelopeFinder owner;
+    int ownerFormulaVersion;
+
+    /**
+     * Class constructor, using the common ForkJoinPool
+     *
+     * @param numWorkers number of worker solvers
+     **/
+    public ParallelInference(int numWorkers) {
+        this(numWorkers, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param numWorkers number of worker solvers
+     * @param pool pool of threads where the workers are run
+     **/
+    public ParallelInference(int numWorkers, ForkJoinPool pool) {
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+        this.numWorkers = numWorkers;
+        this.pool = pool;
+    }
+
+    /**
+     * Ask the worker solvers, each one for a part of the positions,
+     * if there can be an envelope there.
+     *
+     * @param finder the agent, with its solver and current state
+     * @return the list of positions without envelope, in the same order than
+     *         SequentialInference
+     * @throws TimeoutException if solver's isSatisfiable operation spends more
+     *                          time computing than a certain timeout.
+     **/
+    public List<Position> findNoEnvelopePositions(EnvelopeFinder finder) throws TimeoutException {
+        syncWorkers(finder);
+        // Split the positions (columns of x values) in numWorkers contiguous parts
+        List<Callable<List<Position>>> tasks = new ArrayList<>();
+        for (int w = 0; w < numWorkers; w++) {
+            int fromX = 1 + w * finder.WorldDim / numWorkers;
+            int toX = (w + 1) * finder.WorldDim / numWorkers;
+            ISolver worker = workers.get(w);
+            tasks.add(() -> checkPositions(finder, worker, fromX, toX));
+        }
+        List<Position> noEnvelope = new ArrayList<>();
+        for (Future<List<Position>> result : pool.invokeAll(tasks)) {
+            try {
+                noEnvelope.addAll(result.get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof TimeoutException) {
+                    throw (TimeoutException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        return noEnvelope;
+    }
+
+    /**
+     * Ask one worker solver about the positions with x in [fromX,toX].
+     **/
+    private List<Position> checkPositions(EnvelopeFinder finder, ISolver worker, int fromX, int toX)
+            throws TimeoutException {
+        List<Position> noEnvelope = new ArrayList<>();
+        VecInt future = new VecInt();
+        int numCalls = 0;
+        for (int i = fromX; i <= toX; i++) {
+            for (int j = 1; j <= finder.WorldDim; j++) {
+                if (!finder.isInferenceCandidate(i, j)) {
+                    continue;
+                }
+                future.push(finder.coordToLineal(i, j, finder.EnvelopeFutureOffset));
+                numCalls++;
+                if (!worker.isSatisfiable(future)) {
+                    noEnvelope.add(new Position(i, j));
+                }
+                future.clear();
+            }
+        }
+        synchronized (this) {
+            finder.numSolverCalls += numCalls;
+        }
+        return noEnvelope;
+    }
+
+    /**
+     * Make sure the workers belong to the agent and store the same formula,
+     * by adding them the clauses logged by the agent since the last
+     * inference, or by building them again from the facts of the agent.
+     **/
+    private void syncWorkers(EnvelopeFinder finder) {
+        if (finder.propagator != null) {
+            throw new IllegalStateException("ParallelInference needs an agent with a SAT solver");
+        }
+        try {
+            if (owner != finder || ownerFormulaVersion != finder.formulaVersion
+                    || finder.addedClauses == null) {
+                if (owner != null && owner != finder) {
+                    // The old owner builds the workers again if it gets them back
+                    owner.addedClauses = null;
+                }
+                workers.clear();
+                List<VecInt> facts = finder.factClauses();
+                for (int w = 0; w < numWorkers; w++) {
+                    ISolver worker = finder.buildGammaSolver();
+                    for (VecInt clause : facts) {
+                        worker.addClause(clause);
+                    }
+                    workers.add(worker);
+                }
+                owner = finder;
+                ownerFormulaVersion = finder.formulaVersion;
+                finder.addedClauses = new ArrayList<>();
+                return;
+            }
+            for (VecInt clause : finder.addedClauses) {
+                for (ISolver worker : workers) {
+                    worker.addClause(clause);
+                }
+            }
+            finder.addedClauses.clear();
+        } catch (ContradictionException | IOException ex) {
+            throw new IllegalStateException("Worker solvers can not store the agent formula", ex);
+        }
+    }
+}
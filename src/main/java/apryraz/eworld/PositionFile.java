@@ -0,0 +1,80 @@
+package apryraz.eworld;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Parser of the text files of positions (envelopes and steps files) with
+ * the form x1,y1 x2,y2 ... xn,yn. The file is memory mapped and its bytes
+ * are read directly into an array of coordinates, without creating any
+ * String. The positions can be separated by any whitespace, including
+ * line breaks, and big files are mapped in windows.
+ **/
+public class PositionFile {
+
+    /**
+     * Size of the mapped windows of the file
+     **/
+    static final long WINDOW = 1L << 28;
+
+    /**
+     * Read all the positions of a file
+     *
+     * @param fileName name of the file
+     * @return the coordinates of the positions: x1, y1, x2, y2 ...
+     * @throws IOException if the file can not be read
+     **/
+    public static int[] readPairs(String fileName) throws IOException {
+        return readPairs(fileName, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read the first positions of a file
+     *
+     * @param fileName name of the file
+     * @param maxPairs maximum number of positions to read
+     * @return the coordinates of the positions: x1, y1, x2, y2 ...
+     * @throws IOException if the file can not be read
+     * @throws NumberFormatException if a position is not of the form x,y
+     **/
+    public static int[] readPairs(String fileName, int maxPairs) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Every position needs at least 4 bytes (x,y and a separator), the array grows when needed
+            int[] coords = new int[(int) Math.min(2L * maxPairs, Math.min(size / 2 + 2, 1 << 16))];
+            int numCoords = 0;
+            PositionParser parser = new PositionParser(fileName);
+            for (long start = 0; start < size && numCoords < 2L * maxPairs; start += WINDOW) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW, size - start));
+                while (buffer.hasRemaining() && numCoords < 2L * maxPairs) {
+                    if (parser.accept(buffer.get() & 0xFF)) {
+                        coords = addPair(coords, numCoords, parser);
+                        numCoords += 2;
+                    }
+                }
+            }
+            if (numCoords < 2L * maxPairs && parser.accept(-1)) {
+                coords = addPair(coords, numCoords, parser);
+                numCoords += 2;
+            }
+            return numCoords == coords.length ? coords : Arrays.copyOf(coords, numCoords);
+        }
+    }
+
+    /**
+     * Store the last position of the parser at the end of the coordinates,
+     * growing the array if needed
+     **/
+    private static int[] addPair(int[] coords, int numCoords, PositionParser parser) {
+        if (numCoords + 2 > coords.length) {
+            coords = Arrays.copyOf(coords, (int) Math.min(Math.max(2L * coords.length, 2), Integer.MAX_VALUE - 8));
+        }
+        coords[numCoords] = parser.x;
+        coords[numCoords + 1] = parser.y;
+        return coords;
+    }
+}
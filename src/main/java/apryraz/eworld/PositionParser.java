@@ -0,0 +1,84 @@
+package apryraz.eworld;
+
+/**
+ * Tokenizer of the positions of the envelopes and steps files (x1,y1 x2,y2
+ * ... xn,yn), shared by PositionFile and StepReader. It gets the input one
+ * character at a time, so every reader can keep its own way of buffering
+ * it. The positions can be separated by any whitespace (spaces, tabs and
+ * line breaks), and a malformed position, or a coordinate that does not fit
+ * in an int, is thrown as NumberFormatException with the name of the input
+ * and the number of the position.
+ **/
+class PositionParser {
+
+    /**
+     * Name of the input, for the error messages
+     **/
+    final String source;
+    /**
+     * Last position parsed, and number of positions parsed
+     **/
+    int x, y;
+    int numPositions;
+    /**
+     * Number being read, its number of digits, and true if it is the y
+     * coordinate of the position
+     **/
+    private int value, digits;
+    private boolean afterComma;
+
+    /**
+     * Class constructor
+     *
+     * @param source name of the input, for the error messages
+     **/
+    PositionParser(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Parse the next character of the input
+     *
+     * @param c the character, or -1 at the end of the input
+     * @return true if the character ends a position, stored in x and y
+     * @throws NumberFormatException if the position is not of the form x,y
+     **/
+    boolean accept(int c) {
+        if (c >= '0' && c <= '9') {
+            int digit = c - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                throw malformed();
+            }
+            value = value * 10 + digit;
+            digits++;
+            return false;
+        }
+        if (c == ',' && !afterComma && digits > 0) {
+            x = value;
+            value = digits = 0;
+            afterComma = true;
+            return false;
+        }
+        if (c == -1 || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            if (afterComma) {
+                if (digits == 0) {
+                    throw malformed();
+                }
+                y = value;
+                value = digits = 0;
+                afterComma = false;
+                numPositions++;
+                return true;
+            }
+            if (digits > 0) {
+                throw malformed();
+            }
+            return false;
+        }
+        throw malformed();
+    }
+
+    private NumberFormatException malformed() {
+        return new NumberFormatException(source + ": malformed position " + (numPositions + 1) + ", expected x,y");
+    }
+}
@@ -0,0 +1,33 @@
+package apryraz.eworld;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inference strategy for agents that use the DetectorPropagator engine
+ * instead of a SAT solver: the answer of every position is read directly
+ * from the bitsets of the engine, without any satisfiability question.
+ **/
+public class PropagationInference implements InferenceStrategy {
+
+    /**
+     * Read the positions without envelope from the propagation engine.
+     *
+     * @param finder the agent, created with the propagation engine
+     * @return the list of positions without envelope
+     **/
+    public List<Position> findNoEnvelopePositions(EnvelopeFinder finder) {
+        if (finder.propagator == null) {
+            throw new IllegalStateException("PropagationInference needs an agent with the propagation engine");
+        }
+        List<Position> noEnvelope = new ArrayList<>();
+        for (int i = 1; i <= finder.WorldDim; i++) {
+            for (int j = 1; j <= finder.WorldDim; j++) {
+                if (finder.isInferenceCandidate(i, j) && finder.propagator.isNoEnvelope(i, j)) {
+                    noEnvelope.add(new Position(i, j));
+                }
+            }
+        }
+        return noEnvelope;
+    }
+}
@@ -0,0 +1,307 @@
+package apryraz.eworld;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntFunction;
+
+/**
+ * Regression check of the agent against golden scenarios: worlds with the
+ * expected state after every step. The scenarios run in parallel, every
+ * state of the agent is compared with the expected one as a bitset, and a
+ * scenario stops at its first divergence, reporting the step and the
+ * positions with a different value. Optionally the whole run stops at the
+ * first divergence of any scenario, and the scenarios stopped before their
+ * end are reported apart. A scenario that can not run (for example, a world
+ * without expected states) is reported as failed, and the others still run.
+ *
+ * The scenarios are binary world files with states (see WorldFile), or
+ * lines of a manifest file with either the name of a world file or the
+ * text files of a world:
+ *
+ *     dimension numSteps stepsFile envelopesFile statesFile
+ **/
+public class RegressionHarness {
+
+    /**
+     * First divergence of a scenario: step (from 1), expected and actual
+     * states, and positions where they differ
+     **/
+    public static class Divergence {
+        public final String scenario;
+        public final int step;
+        public final EFState expected, actual;
+        public final List<Position> cells;
+
+        Divergence(String scenario, int step, EFState expected, EFState actual) {
+            this.scenario = scenario;
+            this.step = step;
+            this.expected = expected;
+            this.actual = actual;
+            cells = expected.diff(actual);
+        }
+
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(scenario).append(": step ").append(step).append(", ").append(cells.size()).append(" positions:");
+            for (Position cell : cells) {
+                text.append(" (").append(cell.x).append(',').append(cell.y).append(")=")
+                    .append(actual.get(cell.x, cell.y)).append(" expected ").append(expected.get(cell.x, cell.y));
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Result of a run: the first divergence of every scenario that diverged
+     * and the error of every scenario that failed, in the order of the
+     * scenarios, and the scenarios stopped by the divergence of another one
+     **/
+    public static class Report {
+        public final int numScenarios;
+        public final List<Divergence> divergences = new ArrayList<>();
+        public final List<String> failures = new ArrayList<>();
+        public final List<String> stopped = new ArrayList<>();
+
+        Report(int numScenarios) {
+            this.numScenarios = numScenarios;
+        }
+
+        /**
+         * Number of scenarios that ran all their steps without divergences
+         *
+         * @return the number of scenarios passed
+         **/
+        public int numPassed() {
+            return numScenarios - divergences.size() - failures.size() - stopped.size();
+        }
+
+        /**
+         * Check if every scenario ran all its steps without divergences
+         *
+         * @return true if all the scenarios passed
+         **/
+        public boolean passed() {
+            return numPassed() == numScenarios;
+        }
+
+        public String toString() {
+            return numScenarios + " scenarios, " + numPassed() + " passed, " + divergences.size() + " diverged, "
+                   + failures.size() + " failed, " + stopped.size() + " stopped";
+        }
+    }
+
+    /**
+     * Outcome of one scenario: its divergence or its error, or stopped by
+     * the divergence of another scenario. Passed if none of them
+     **/
+    static class Outcome {
+        Divergence divergence;
+        Exception error;
+        boolean stopped;
+    }
+
+    /**
+     * Creates the agent of every scenario from the dimension of the world
+     **/
+    IntFunction<EnvelopeFinder> agentFactory;
+    int numThreads;
+    boolean stopAtFirst;
+
+    /**
+     * Class constructor
+     *
+     * @param agentFactory creates an agent for a world of the given dimension
+     * @param numThreads number of scenarios run at the same time
+     * @param stopAtFirst true to stop all the scenarios at the first divergence
+     **/
+    public RegressionHarness(IntFunction<EnvelopeFinder> agentFactory, int numThreads, boolean stopAtFirst) {
+        this.agentFactory = agentFactory;
+        this.numThreads = numThreads;
+        this.stopAtFirst = stopAtFirst;
+    }
+
+    /**
+     * Read the scenarios of a manifest
+     *
+     * @param manifest name of the manifest file
+     * @param names list where the name of every scenario (its line) is added
+     * @return the world of every scenario, in the order of the file
+     * @throws IOException if a file can not be read or a line is not valid
+     **/
+    public static List<WorldFile> loadManifest(String manifest, List<String> names) throws IOException {
+        List<WorldFile> worlds = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(manifest))) {
+            for (String line = br.readLine(); line != null; line = br.readLine()) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length == 1) {
+                    worlds.add(WorldFile.load(fields[0]));
+                } else if (fields.length == 5) {
+                    WorldFile world = WorldFile.fromText(Integer.parseInt(fields[0]), fields[3], fields[2], fields[4]);
+                    int numSteps = Integer.parseInt(fields[1]);
+                    if (numSteps < 0 || numSteps > world.numSteps()) {
+                        throw new IOException(manifest + ": " + numSteps + " steps requested but " + fields[2]
+                                              + " has " + world.numSteps() + ": " + line);
+                    }
+                    worlds.add(new WorldFile(world.worldDim, world.envelopes,
+                                             Arrays.copyOf(world.steps, 2 * numSteps),
+                                             world.states.subList(0, Math.min(numSteps, world.states.size()))));
+                } else {
+                    throw new IOException(manifest + ": expected a world file or 5 fields: " + line);
+                }
+                names.add(line);
+            }
+        }
+        return worlds;
+    }
+
+    /**
+     * Run the scenarios and compare their states
+     *
+     * @param names name of every scenario, for the report
+     * @param worlds the worlds, with their expected states
+     * @return the report of the run
+     * @throws InterruptedException if the thread is interrupted while waiting
+     **/
+    public Report run(List<String> names, List<WorldFile> worlds) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Callable<Outcome>> tasks = new ArrayList<>(worlds.size());
+            for (int s = 0; s < worlds.size(); s++) {
+                String name = names.get(s);
+                WorldFile world = worlds.get(s);
+                tasks.add(() -> check(name, world, stop));
+            }
+            Report report = new Report(worlds.size());
+            List<Future<Outcome>> futures = pool.invokeAll(tasks);
+            for (int s = 0; s < futures.size(); s++) {
+                Outcome outcome;
+                try {
+                    outcome = futures.get(s).get();
+                } catch (ExecutionException ex) {
+                    // check returns the exceptions in the outcome, so this is an Error
+                    throw new IllegalStateException(ex.getCause());
+                }
+                if (outcome.divergence != null) {
+                    report.divergences.add(outcome.divergence);
+                } else if (outcome.error != null) {
+                    report.failures.add(names.get(s) + ": " + outcome.error);
+                } else if (outcome.stopped) {
+                    report.stopped.add(names.get(s));
+                }
+            }
+            return report;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run the steps of a world until its states end, the first divergence
+     * or the divergence of another scenario with stopAtFirst
+     **/
+    Outcome check(String name, WorldFile world, AtomicBoolean stop) {
+        Outcome outcome = new Outcome();
+        try {
+            if (world.states.isEmpty()) {
+                throw new IOException("the world has no expected states");
+            }
+            EnvelopeFinder agent = agentFactory.apply(world.worldDim);
+            agent.setEnvironment(new EnvelopeWorldEnv(world));
+            agent.loadListOfSteps(world);
+            for (int step = 0; step < world.states.size(); step++) {
+                if (stop.get()) {
+                    outcome.stopped = true;
+                    return outcome;
+                }
+                agent.runNextStep();
+                if (!agent.getState().equals(world.states.get(step))) {
+                    if (stopAtFirst) {
+                        stop.set(true);
+                    }
+                    outcome.divergence = new Divergence(name, step + 1, world.states.get(step), agent.getState().copy());
+                    return outcome;
+                }
+            }
+        } catch (Exception ex) {
+            outcome.error = ex;
+        }
+        return outcome;
+    }
+
+    /**
+     *  Check a corpus of scenarios from the command line:
+     *  arg[0] = manifest file, or a world file
+     *  arg[1] = inference of the agents: sequential (default), backbone, propagation, lazy or tiled
+     *  arg[2] = number of threads (optional, by default the number of processors)
+     *  With -Deworld.regression.stopAtFirst=true the run stops at the first divergence,
+     *  and with -Deworld.solver=name the SAT agents use that SAT4J configuration.
+     *  The exit status is 1 if any scenario diverged, failed or was stopped.
+     *
+     * @throws IOException if a scenario can not be read
+     * @throws InterruptedException if the thread is interrupted while waiting
+     **/
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            AgentLog.error("You must specify the manifest or world file");
+            return;
+        }
+        if (System.getProperty("eworld.log") == null) {
+            AgentLog.setLevel(AgentLog.Level.SILENT);
+        }
+        List<String> names = new ArrayList<>();
+        List<WorldFile> worlds;
+        if (args[0].endsWith(".ewb")) {
+            worlds = new ArrayList<>();
+            worlds.add(WorldFile.load(args[0]));
+            names.add(args[0]);
+        } else {
+            worlds = loadManifest(args[0], names);
+        }
+        String strategy = args.length > 1 ? args[1] : "sequential";
+        int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        IntFunction<EnvelopeFinder> factory = dim -> {
+            SolverBackend backend = strategy.equals("propagation") ? SolverBackend.PROPAGATION
+                                    : SolverBackend.forName(System.getProperty("eworld.solver", "Default"));
+            if (strategy.equals("tiled")) {
+                return new EnvelopeFinder(dim, backend, new TiledInference(Integer.getInteger("eworld.tileSize", 32)));
+            }
+            EnvelopeFinder agent = new EnvelopeFinder(dim, backend, strategy.equals("lazy"));
+            if (strategy.equals("backbone")) {
+                agent.setInferenceStrategy(new BackboneInference());
+            }
+            return agent;
+        };
+        long start = System.nanoTime();
+        Report report = new RegressionHarness(factory, numThreads,
+                Boolean.getBoolean("eworld.regression.stopAtFirst")).run(names, worlds);
+        AgentLog.flush();
+        for (Divergence divergence : report.divergences) {
+            System.out.println("DIVERGED " + divergence);
+        }
+        for (String failure : report.failures) {
+            System.out.println("FAILED " + failure);
+        }
+        for (String name : report.stopped) {
+            System.out.println("STOPPED " + name);
+        }
+        System.out.println("REGRESSION => " + report + ", " + (System.nanoTime() - start) / 1000000 + "ms");
+        if (!report.passed()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package apryraz.eworld;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * The original inference of the agent: one satisfiability question to the
+ * solver for every position of the world, asking if Gamma + future(x,y)
+ * is satisfiable.
+ **/
+public class SequentialInference implements InferenceStrategy {
+
+    /**
+     * Ask the solver, position by position, if there can be an envelope there.
+     *
+     * @param finder the agent, with its solver and current state
+     * @return the list of positions without envelope
+     * @throws TimeoutException if solver's isSatisfiable operation spends more
+     *                          time computing than a certain timeout.
+     **/
+    public List<Position> findNoEnvelopePositions(EnvelopeFinder finder) throws TimeoutException {
+        List<Position> noEnvelope = new ArrayList<>();
+        VecInt future = new VecInt();
+        for (int i = 1; i <= finder.WorldDim; i++) {
+            for (int j = 1; j <= finder.WorldDim; j++) {
+                if (!finder.isInferenceCandidate(i, j)) {
+                    continue;
+                }
+                future.push(finder.coordToLineal(i, j, finder.EnvelopeFutureOffset));
+                //It checks if Γ + future it is unsatisfiable
+                if (!finder.querySolver(future)) {
+                    noEnvelope.add(new Position(i, j));
+                }
+                future.clear();
+            }
+        }
+        return noEnvelope;
+    }
+}
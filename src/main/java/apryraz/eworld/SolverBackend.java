@@ -0,0 +1,106 @@
+package apryraz.eworld;
+
+import java.util.Arrays;
+
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ISolver;
+
+/**
+ * Engine that stores the formula of an EnvelopeFinder agent and answers its
+ * satisfiability questions: one of the configurations of SAT4J (Default,
+ * Light, Glucose, MiniSATHeap... with their restart, learning and
+ * simplification strategies), or the native propagation engine
+ * (DetectorPropagator). The backends are selected by name, so they can be
+ * chosen from the configuration of a run, and different world sizes can
+ * use the one that works best for them.
+ **/
+public class SolverBackend {
+
+    /**
+     * Name of the propagation engine backend
+     **/
+    public static final String PROPAGATION_NAME = "propagation";
+    /**
+     * The SAT4J default solver, used when no backend is selected
+     **/
+    public static final SolverBackend DEFAULT = new SolverBackend("Default", 3600);
+    /**
+     * The propagation engine
+     **/
+    public static final SolverBackend PROPAGATION = new SolverBackend(PROPAGATION_NAME, 0);
+
+    /**
+     * Name of the backend and timeout of the SAT4J solvers in seconds
+     **/
+    final String name;
+    final int timeout;
+
+    private SolverBackend(String name, int timeout) {
+        this.name = name;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Find a backend by its name
+     *
+     * @param name "propagation", or the name of a SAT4J configuration as in
+     *             SolverFactory (the name of its new... method, like Light)
+     * @return the backend, with a timeout of 3600 seconds
+     * @throws IllegalArgumentException if there is no backend with that name
+     **/
+    public static SolverBackend forName(String name) {
+        if (name.equals(PROPAGATION_NAME)) {
+            return PROPAGATION;
+        }
+        // DimacsOutput only writes the clauses, it does not solve them
+        if (name.equals("DimacsOutput") || !Arrays.asList(SolverFactory.instance().solverNames()).contains(name)) {
+            throw new IllegalArgumentException("Unknown solver backend: " + name + ", expected " + PROPAGATION_NAME
+                                               + " or one of " + Arrays.toString(SolverFactory.instance().solverNames()));
+        }
+        return name.equals(DEFAULT.name) ? DEFAULT : new SolverBackend(name, DEFAULT.timeout);
+    }
+
+    /**
+     * The same backend with another timeout
+     *
+     * @param seconds timeout of every satisfiability question
+     * @return the backend with the new timeout
+     **/
+    public SolverBackend withTimeout(int seconds) {
+        if (isPropagation()) {
+            return this;
+        }
+        return new SolverBackend(name, seconds);
+    }
+
+    /**
+     * Check if this backend is the propagation engine
+     *
+     * @return true for the propagation engine, false for SAT4J
+     **/
+    public boolean isPropagation() {
+        return name.equals(PROPAGATION_NAME);
+    }
+
+    /**
+     * Create an empty SAT4J solver of this configuration
+     *
+     * @return the new solver, with the timeout of the backend
+     * @throws IllegalStateException if the backend is the propagation engine
+     **/
+    public ISolver newSolver() {
+        if (isPropagation()) {
+            throw new IllegalStateException("The propagation engine is not a SAT4J solver");
+        }
+        ISolver solver = SolverFactory.instance().createSolverByName(name);
+        solver.setTimeout(timeout);
+        return solver;
+    }
+
+    /**
+     * Name of the backend
+     **/
+    public String toString() {
+        return name;
+    }
+}
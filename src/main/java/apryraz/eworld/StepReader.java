@@ -0,0 +1,134 @@
+package apryraz.eworld;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Source of steps that reads the positions of a steps file (x1,y1 x2,y2 ...)
+ * while the agent moves, instead of loading all of them before the run.
+ * Only one position is parsed ahead, so the steps can be longer than the
+ * memory and their number does not need to be known. The positions can be
+ * separated by any whitespace, including line breaks.
+ *
+ * The reader is closed when the last position is read. Errors reading the
+ * input are thrown as UncheckedIOException, and malformed positions as
+ * NumberFormatException.
+ **/
+public class StepReader implements Iterator<Position>, Closeable {
+
+    /**
+     * Input, buffer of characters read and position of the next one
+     **/
+    Reader in;
+    char[] buffer = new char[8192];
+    int pos, limit;
+    /**
+     * Next position to return, or null if the input has ended, and the
+     * parser of the positions
+     **/
+    Position next;
+    PositionParser parser;
+
+    /**
+     * Class constructor
+     *
+     * @param in the input with the positions
+     **/
+    public StepReader(Reader in) {
+        this(in, "steps");
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param in the input with the positions
+     * @param source name of the input, for the error messages
+     **/
+    public StepReader(Reader in, String source) {
+        this.in = in;
+        parser = new PositionParser(source);
+        next = parseNext();
+    }
+
+    /**
+     * Open a steps file
+     *
+     * @param stepsFile name of the file, or "-" to read the standard input
+     * @return the reader of the steps of the file
+     * @throws IOException if the file can not be opened
+     **/
+    public static StepReader open(String stepsFile) throws IOException {
+        InputStream input = stepsFile.equals("-") ? System.in : new FileInputStream(stepsFile);
+        return new StepReader(new InputStreamReader(input, StandardCharsets.US_ASCII), stepsFile);
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    public Position next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        Position result = next;
+        next = parseNext();
+        return result;
+    }
+
+    public void close() throws IOException {
+        next = null;
+        if (in != null) {
+            in.close();
+            in = null;
+        }
+    }
+
+    /**
+     * Read the next character, or -1 at the end of the input
+     **/
+    private int read() {
+        if (pos == limit) {
+            if (in == null) {
+                return -1;
+            }
+            try {
+                limit = in.read(buffer, 0, buffer.length);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[pos++];
+    }
+
+    /**
+     * Parse the next x,y position, closing the input at its end
+     **/
+    private Position parseNext() {
+        for (int c = read(); ; c = read()) {
+            if (parser.accept(c)) {
+                return new Position(parser.x, parser.y);
+            }
+            if (c == -1) {
+                try {
+                    close();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return null;
+            }
+        }
+    }
+}
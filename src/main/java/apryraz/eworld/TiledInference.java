@@ -0,0 +1,300 @@
+package apryraz.eworld;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.TimeoutException;
+
+/**
+ * Inference over a world split in square tiles, each one with its own SAT
+ * solver, so the cost of a step depends on the size of the tiles and not on
+ * the size of the world.
+ *
+ * The rules of Gamma only relate a detector with the positions next to it,
+ * and the past of a position with its own future, so whether there can be
+ * an envelope at a position not crossed yet only depends on the readings
+ * of the detectors in the 3x3 square around it. The solver of a tile stores
+ * the positions of the tile and a border of one position around it (shared
+ * with the neighbour tiles), the sensor clauses of the readings in that
+ * area, and the clause "at least one envelope" with one more variable
+ * meaning that the envelope is out of the area, so that clause never
+ * forces an envelope into the tile. The past variables are not stored: a
+ * past clause only makes false the future of a position already crossed,
+ * and the tiles are not asked about those positions again.
+ *
+ * A reading only changes the conclusions of the tiles whose area contains
+ * it, so only those tiles (at most 4) are asked after every step, and they
+ * are asked concurrently in a ForkJoinPool. The other tiles keep the
+ * conclusions already in the state of the agent. The tiles are created
+ * the first time a reading is inside their area. If the agent compacts its
+ * formula, or the strategy is used with another agent, the tiles are built
+ * again from the readings of the agent. The tile solvers use the SAT4J
+ * configuration of the agent.
+ **/
+public class TiledInference implements InferenceStrategy {
+
+    /**
+     * Solver of one tile, with the positions of the tile and its border
+     **/
+    static class Tile {
+        /**
+         * First and last coordinates of the area of the solver (the tile
+         * and its border), and its width and height
+         **/
+        final int minX, minY, maxX, maxY, width, height;
+        /**
+         * Variable of the envelope out of the area, and number of variables
+         **/
+        final int outside;
+        int numVariables;
+        final ISolver solver;
+        /**
+         * True when the tile got new readings since it was last asked
+         **/
+        boolean dirty;
+
+        Tile(int fromX, int fromY, int toX, int toY, int WorldDim, ISolver solver) throws ContradictionException {
+            minX = Math.max(fromX - 1, 1);
+            minY = Math.max(fromY - 1, 1);
+            maxX = Math.min(toX + 1, WorldDim);
+            maxY = Math.min(toY + 1, WorldDim);
+            width = maxX - minX + 1;
+            height = maxY - minY + 1;
+            // Future variables 1..width*height, then the outside variable and the detectors
+            outside = width * height + 1;
+            numVariables = outside;
+            this.solver = solver;
+            solver.newVar(numVariables);
+            VecInt alo = new VecInt(outside);
+            for (int v = 1; v <= outside; v++) {
+                alo.push(v);
+            }
+            solver.addClause(alo);
+        }
+
+        /**
+         * Future variable of the position (x,y) in the tile solver, or 0 if
+         * it is out of the area
+         **/
+        int future(int x, int y) {
+            if (x < minX || x > maxX || y < minY || y > maxY) {
+                return 0;
+            }
+            return (y - minY) * width + (x - minX) + 1;
+        }
+
+        /**
+         * Add the five detectors of a reading, the clauses future => detector
+         * of the positions of the area that they see, and the reading.
+         **/
+        void addReading(int x, int y, int mask) throws ContradictionException {
+            int firstVar = numVariables + 1;
+            numVariables += 5;
+            solver.newVar(numVariables);
+            for (int d = -1; d <= 1; d++) {
+                addSensorClause(future(x + 1, y + d), firstVar);
+                addSensorClause(future(x + d, y + 1), firstVar + 1);
+                addSensorClause(future(x - 1, y + d), firstVar + 2);
+                addSensorClause(future(x + d, y - 1), firstVar + 3);
+            }
+            addSensorClause(future(x, y), firstVar + 4);
+            for (int k = 0; k < 5; k++) {
+                VecInt unit = new VecInt(1);
+                unit.push(((mask >> k) & 1) != 0 ? firstVar + k : -(firstVar + k));
+                solver.addClause(unit);
+            }
+            dirty = true;
+        }
+
+        private void addSensorClause(int futureVar, int detectorVar) throws ContradictionException {
+            if (futureVar != 0) {
+                VecInt clause = new VecInt(2);
+                clause.push(-futureVar);
+                clause.push(detectorVar);
+                solver.addClause(clause);
+            }
+        }
+    }
+
+    /**
+     * Side of the tiles, pool where the tiles are asked, and the tiles
+     * (null until they get a reading) with index (ty * tilesPerSide + tx)
+     **/
+    int tileSize;
+    ForkJoinPool pool;
+    Tile[] tiles;
+    int tilesPerSide;
+    /**
+     * Agent that owns the tiles, version of its formula, and readings
+     * of the agent already added to the tiles
+     **/
+    EnvelopeFinder owner;
+    int ownerFormulaVersion;
+    int[] appliedReadings;
+
+    /**
+     * Class constructor, using the common ForkJoinPool
+     *
+     * @param tileSize side of the tiles, in positions
+     **/
+    public TiledInference(int tileSize) {
+        this(tileSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param tileSize side of the tiles, in positions
+     * @param pool pool of threads where the tiles are asked
+     **/
+    public TiledInference(int tileSize, ForkJoinPool pool) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("The tiles must have at least one position");
+        }
+        this.tileSize = tileSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Add the new readings of the agent to their tiles, and ask the tiles
+     * that got any of them about their positions not crossed yet.
+     *
+     * @param finder the agent, with its readings and current state
+     * @return the new positions without envelope
+     * @throws TimeoutException if solver's isSatisfiable operation spends more
+     *                          time computing than a certain timeout.
+     **/
+    public List<Position> findNoEnvelopePositions(EnvelopeFinder finder) throws TimeoutException {
+        List<Callable<List<Position>>> tasks = new ArrayList<>();
+        for (Tile tile : syncTiles(finder)) {
+            tasks.add(() -> checkPositions(finder, tile));
+        }
+        List<Position> noEnvelope = new ArrayList<>();
+        for (Future<List<Position>> result : pool.invokeAll(tasks)) {
+            try {
+                noEnvelope.addAll(result.get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof TimeoutException) {
+                    throw (TimeoutException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+        return noEnvelope;
+    }
+
+    /**
+     * Add to the tiles the readings of the agent not added yet. Normally it
+     * is only the reading of the last step, at the position of the agent.
+     *
+     * @return the tiles with new readings
+     **/
+    private List<Tile> syncTiles(EnvelopeFinder finder) {
+        List<Tile> dirty = new ArrayList<>();
+        try {
+            if (owner != finder || ownerFormulaVersion != finder.formulaVersion) {
+                tilesPerSide = (finder.WorldDim + tileSize - 1) / tileSize;
+                tiles = new Tile[tilesPerSide * tilesPerSide];
+                appliedReadings = new int[finder.WorldLinealDim];
+                Arrays.fill(appliedReadings, -1);
+                owner = finder;
+                ownerFormulaVersion = finder.formulaVersion;
+                for (int cell = 0; cell < finder.WorldLinealDim; cell++) {
+                    applyReading(finder, cell, dirty);
+                }
+            } else if (finder.agentX >= 1 && finder.agentY >= 1) {
+                applyReading(finder, (finder.agentY - 1) * finder.WorldDim + (finder.agentX - 1), dirty);
+            }
+        } catch (ContradictionException ex) {
+            throw new IllegalStateException("Tile solvers can not store the agent readings", ex);
+        }
+        for (Tile tile : dirty) {
+            tile.dirty = false;
+        }
+        return dirty;
+    }
+
+    /**
+     * Add the reading of a position, if it is new, to the tiles whose area
+     * contains it: the tile of the position and the ones next to it when
+     * the position is at their border.
+     **/
+    private void applyReading(EnvelopeFinder finder, int cell, List<Tile> dirty) throws ContradictionException {
+        int mask = finder.detectorReadings[cell];
+        if (mask < 0 || appliedReadings[cell] == mask) {
+            return;
+        }
+        appliedReadings[cell] = mask;
+        int x = cell % finder.WorldDim + 1;
+        int y = cell / finder.WorldDim + 1;
+        int fromTx = Math.max((x - 2) / tileSize, 0), toTx = Math.min(x / tileSize, tilesPerSide - 1);
+        int fromTy = Math.max((y - 2) / tileSize, 0), toTy = Math.min(y / tileSize, tilesPerSide - 1);
+        for (int ty = fromTy; ty <= toTy; ty++) {
+            for (int tx = fromTx; tx <= toTx; tx++) {
+                Tile tile = tiles[ty * tilesPerSide + tx];
+                if (tile == null) {
+                    tile = new Tile(tx * tileSize + 1, ty * tileSize + 1,
+                                    Math.min((tx + 1) * tileSize, finder.WorldDim),
+                                    Math.min((ty + 1) * tileSize, finder.WorldDim), finder.WorldDim,
+                                    tileBackend(finder).newSolver());
+                    tiles[ty * tilesPerSide + tx] = tile;
+                }
+                if (tile.future(x, y) == 0) {
+                    continue;
+                }
+                if (!tile.dirty) {
+                    dirty.add(tile);
+                }
+                tile.addReading(x, y, mask);
+            }
+        }
+    }
+
+    /**
+     * Backend of the tile solvers: the one of the agent, or the SAT4J
+     * default solver if the agent uses the propagation engine
+     **/
+    private static SolverBackend tileBackend(EnvelopeFinder finder) {
+        return finder.backend.isPropagation() ? SolverBackend.DEFAULT : finder.backend;
+    }
+
+    /**
+     * Ask the solver of a tile about the positions of the tile (without
+     * its border) not crossed yet.
+     **/
+    private List<Position> checkPositions(EnvelopeFinder finder, Tile tile) throws TimeoutException {
+        List<Position> noEnvelope = new ArrayList<>();
+        VecInt future = new VecInt();
+        int numCalls = 0;
+        int fromX = tile.minX == 1 ? 1 : tile.minX + 1, toX = tile.maxX == finder.WorldDim ? tile.maxX : tile.maxX - 1;
+        int fromY = tile.minY == 1 ? 1 : tile.minY + 1, toY = tile.maxY == finder.WorldDim ? tile.maxY : tile.maxY - 1;
+        for (int i = fromX; i <= toX; i++) {
+            for (int j = fromY; j <= toY; j++) {
+                if (finder.efstate.isCrossed(i, j)) {
+                    continue;
+                }
+                future.push(tile.future(i, j));
+                numCalls++;
+                if (!tile.solver.isSatisfiable(future)) {
+                    noEnvelope.add(new Position(i, j));
+                }
+                future.clear();
+            }
+        }
+        synchronized (this) {
+            finder.numSolverCalls += numCalls;
+        }
+        return noEnvelope;
+    }
+}
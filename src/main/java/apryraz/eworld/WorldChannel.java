@@ -0,0 +1,18 @@
+package apryraz.eworld;
+
+/**
+ * Channel used by the agent to send its messages to the Envelope World and
+ * get the answers. The environment object is the direct channel, and
+ * AgentRuntime gives channels that go through the mailbox of an
+ * environment running in another thread.
+ **/
+public interface WorldChannel {
+
+    /**
+     * Send a message to the world and wait for its answer
+     *
+     * @param msg message sent by the agent
+     * @return the answer of the world
+     **/
+    WorldMessage acceptMessage(WorldMessage msg);
+}
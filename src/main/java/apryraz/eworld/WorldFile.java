@@ -0,0 +1,304 @@
+package apryraz.eworld;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A whole Envelope World in one binary file: dimension, envelope positions,
+ * steps of the agent and, optionally, the expected state after every step.
+ * The coordinates are stored with 2 bytes when the dimension allows it, and
+ * the states as the bitsets of EFState, so a file is read with a few bulk
+ * copies from memory mapped windows of the file. The main program converts
+ * the text files of the tests into a world file.
+ *
+ * Format (big endian): magic, dimension, bytes per coordinate (1 byte),
+ * number of envelopes and their x,y coordinates, number of steps and their
+ * x,y coordinates, number of states and the words of every state.
+ **/
+public class WorldFile {
+
+    /**
+     * Identifier at the start of the world files
+     **/
+    static final int FILE_MAGIC = 0x45574c31;
+    /**
+     * Size of the mapped windows of the file
+     **/
+    static final long WINDOW = 1L << 28;
+
+    /**
+     * Dimension of the world, coordinates of envelopes and steps
+     * (x1, y1, x2, y2 ...) and expected states after every step
+     **/
+    public final int worldDim;
+    public final int[] envelopes, steps;
+    public final List<EFState> states;
+
+    /**
+     * Class constructor
+     *
+     * @param worldDim dimension of the world
+     * @param envelopes coordinates of the envelopes
+     * @param steps coordinates of the steps
+     * @param states expected states, or an empty list
+     **/
+    public WorldFile(int worldDim, int[] envelopes, int[] steps, List<EFState> states) {
+        this.worldDim = worldDim;
+        this.envelopes = envelopes;
+        this.steps = steps;
+        this.states = states;
+    }
+
+    /**
+     * Number of steps of the world
+     *
+     * @return the number of positions in steps
+     **/
+    public int numSteps() {
+        return steps.length / 2;
+    }
+
+    /**
+     * Read a world from the text files of the tests
+     *
+     * @param worldDim dimension of the world
+     * @param envelopesFile file with the envelopes positions
+     * @param stepsFile file with the steps positions
+     * @param statesFile file with the expected states, or null
+     * @return the world
+     * @throws IOException if any file can not be read
+     **/
+    public static WorldFile fromText(int worldDim, String envelopesFile, String stepsFile, String statesFile)
+            throws IOException {
+        List<EFState> states = statesFile == null ? new ArrayList<>() : readStates(worldDim, statesFile);
+        return new WorldFile(worldDim, PositionFile.readPairs(envelopesFile), PositionFile.readPairs(stepsFile), states);
+    }
+
+    /**
+     * Read all the states of a states file, with the rows of every state
+     * from i = wDim to 1 and blank lines between states
+     **/
+    static List<EFState> readStates(int wDim, String statesFile) throws IOException {
+        List<EFState> states = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(statesFile))) {
+            EFState state = null;
+            int i = wDim;
+            for (String row = br.readLine(); row != null; row = br.readLine()) {
+                row = row.trim();
+                if (row.isEmpty()) {
+                    continue;
+                }
+                if (state == null) {
+                    state = new EFState(wDim);
+                    i = wDim;
+                }
+                String[] rowvalues = row.split("\\s+");
+                for (int j = 1; j <= wDim; j++) {
+                    state.set(i, j, rowvalues[j-1]);
+                }
+                if (--i == 0) {
+                    states.add(state);
+                    state = null;
+                }
+            }
+            if (state != null) {
+                throw new IOException("Incomplete state at the end of " + statesFile);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Write the world to a file
+     *
+     * @param fileName the file to write
+     * @throws IOException Signals that an I/O exception of some sort has occurred.
+     **/
+    public void save(String fileName) throws IOException {
+        int width = worldDim <= 0xffff ? 2 : 4;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(worldDim);
+            out.writeByte(width);
+            for (int[] coords : new int[][] { envelopes, steps }) {
+                out.writeInt(coords.length / 2);
+                for (int value : coords) {
+                    if (width == 2) {
+                        out.writeChar(value);
+                    } else {
+                        out.writeInt(value);
+                    }
+                }
+            }
+            out.writeInt(states.size());
+            for (EFState state : states) {
+                for (long word : state.crossed) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a world saved with save
+     *
+     * @param fileName the file to read
+     * @return the world stored in the file
+     * @throws IOException if the file can not be read or it is not a world file
+     **/
+    public static WorldFile load(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            MappedInput in = new MappedInput(channel, fileName);
+            if (channel.size() < 9 || in.getInt() != FILE_MAGIC) {
+                throw new IOException("Not a world file: " + fileName);
+            }
+            int worldDim = in.getInt();
+            int width = in.getByte();
+            if (worldDim < 1 || (long) worldDim * worldDim + 63 > Integer.MAX_VALUE
+                    || (width != 2 && width != 4)) {
+                throw new IOException("Corrupted world file: " + fileName + ", dimension " + worldDim
+                                      + " with " + width + " bytes per coordinate");
+            }
+            int[] envelopes = in.getCoords(width);
+            int[] steps = in.getCoords(width);
+            int numStates = in.getCount(8L * (((long) worldDim * worldDim + 63) / 64));
+            List<EFState> states = new ArrayList<>(numStates);
+            for (int s = 0; s < numStates; s++) {
+                EFState state = new EFState(worldDim);
+                in.getLongs(state.crossed);
+                states.add(state);
+            }
+            return new WorldFile(worldDim, envelopes, steps, states);
+        } catch (RuntimeException ex) {
+            // Unexpected values of a damaged file that the checks do not catch
+            throw new IOException("Corrupted world file: " + fileName, ex);
+        }
+    }
+
+    /**
+     * Reader of a world file through windows of WINDOW bytes mapped in
+     * memory, so files of any size can be read. A value is never split
+     * between two windows: the next window starts at the first byte not read.
+     **/
+    private static class MappedInput {
+        final FileChannel channel;
+        final String fileName;
+        final long size;
+        /**
+         * Position in the file of the current window, and the window
+         **/
+        long start;
+        ByteBuffer window;
+
+        MappedInput(FileChannel channel, String fileName) throws IOException {
+            this.channel = channel;
+            this.fileName = fileName;
+            size = channel.size();
+            window = ByteBuffer.allocate(0);
+        }
+
+        /**
+         * Make sure the window has the next bytes of the file
+         **/
+        private void need(long bytes) throws IOException {
+            if (window.remaining() >= bytes) {
+                return;
+            }
+            long position = start + window.position();
+            if (size - position < bytes) {
+                throw new IOException("Corrupted world file: " + fileName + ", truncated at byte " + position);
+            }
+            start = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(bytes, Math.min(WINDOW, size - start)));
+        }
+
+        int getByte() throws IOException {
+            need(1);
+            return window.get();
+        }
+
+        int getInt() throws IOException {
+            need(4);
+            return window.getInt();
+        }
+
+        /**
+         * Read a number of items of the given size, checking that the file
+         * has them before they are allocated
+         **/
+        int getCount(long itemBytes) throws IOException {
+            int count = getInt();
+            long position = start + window.position();
+            if (count < 0 || count * itemBytes > size - position) {
+                throw new IOException("Corrupted world file: " + fileName + ", " + count
+                                      + " items of " + itemBytes + " bytes at byte " + position);
+            }
+            return count;
+        }
+
+        /**
+         * Read a number of positions and their coordinates
+         **/
+        int[] getCoords(int width) throws IOException {
+            long numCoords = 2L * getCount(2L * width);
+            if (numCoords > Integer.MAX_VALUE - 8) {
+                throw new IOException("Corrupted world file: " + fileName + ", " + numCoords + " coordinates");
+            }
+            int[] coords = new int[(int) numCoords];
+            int chunk = (int) (WINDOW / width);
+            for (int k = 0; k < coords.length; k += chunk) {
+                int n = Math.min(chunk, coords.length - k);
+                need((long) n * width);
+                if (width == 2) {
+                    for (int c = k; c < k + n; c++) {
+                        coords[c] = window.getChar();
+                    }
+                } else {
+                    window.asIntBuffer().get(coords, k, n);
+                    window.position(window.position() + 4 * n);
+                }
+            }
+            return coords;
+        }
+
+        /**
+         * Read the words of a state
+         **/
+        void getLongs(long[] words) throws IOException {
+            need(8L * words.length);
+            window.asLongBuffer().get(words);
+            window.position(window.position() + 8 * words.length);
+        }
+    }
+
+    /**
+     *  Convert the text files of a world to a world file:
+     *  arg[0] = dimension of the world
+     *  arg[1] = file name with list of envelopes positions
+     *  arg[2] = file name with sequence of steps
+     *  arg[3] = file name with the expected states (optional)
+     *  last   = file name of the world file to write
+     *
+     * @throws IOException if a file can not be read or written
+     **/
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            AgentLog.error("You must specify dimension, envelopes, steps, [states] and output files");
+            return;
+        }
+        WorldFile world = fromText(Integer.parseInt(args[0]), args[1], args[2], args.length > 4 ? args[3] : null);
+        world.save(args[args.length - 1]);
+        AgentLog.summary("WORLD => " + world.envelopes.length / 2 + " envelopes, " + world.numSteps() + " steps, "
+                         + world.states.size() + " states written to " + args[args.length - 1]);
+    }
+}
@@ -0,0 +1,155 @@
+package apryraz.eworld;
+
+/**
+ * Typed version of the messages exchanged between the EnvelopeFinder agent
+ * and the Envelope World interface object. The coordinates and values are
+ * ints, and the answer to a detection stores the active detectors as a
+ * mask of 5 bits (bit k-1 for detector k), so no strings are formatted or
+ * parsed in a step. AMessage objects can still be converted to and from
+ * this form with fromAMessage and toAMessage.
+ **/
+public class WorldMessage {
+
+    /**
+     * The message types, with the name used in the AMessage form.
+     * The answer to a detection (DETECTED) uses the list of detectors as name.
+     **/
+    public enum Type {
+        MOVETO("moveto"), MOVEDTO("movedto"), NOTMOVEDTO("notmovedto"),
+        DETECTSAT("detectsat"), DETECTED(""), VOIDMSG("voidmsg"), NOMESSAGE("NOMESSAGE");
+
+        final String name;
+
+        Type(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Messages without parameters, shared as they are immutable
+     **/
+    public static final WorldMessage VOID = new WorldMessage(Type.VOIDMSG, 0, 0, 0);
+    public static final WorldMessage NONE = new WorldMessage(Type.NOMESSAGE, 0, 0, 0);
+
+    /**
+     * Message type, position (x,y) and value: envelopes found for MOVEDTO,
+     * detectors mask for DETECTED, and 0 for the other types
+     **/
+    public final Type type;
+    public final int x, y, value;
+
+    /**
+     * Class constructor
+     *
+     * @param type message type
+     * @param x first parameter of message, x coordinate
+     * @param y second parameter of message, y coordinate
+     * @param value third parameter of message
+     **/
+    public WorldMessage(Type type, int x, int y, int value) {
+        this.type = type;
+        this.x = x;
+        this.y = y;
+        this.value = value;
+    }
+
+    /**
+     * Check if detector k (from 1 to 5) is active in a DETECTED message
+     *
+     * @param k the detector
+     * @return true if the detector is active
+     **/
+    public boolean isDetectorActive(int k) {
+        return (value & (1 << (k - 1))) != 0;
+    }
+
+    /**
+     * Convert a mask of active detectors to the list used in AMessage: "1,3,"
+     *
+     * @param mask the detectors mask
+     * @return the list of active detectors, each one followed by a coma
+     **/
+    public static String maskToString(int mask) {
+        StringBuilder detectors = new StringBuilder();
+        for (int k = 1; k <= 5; k++) {
+            if ((mask & (1 << (k - 1))) != 0) {
+                detectors.append(k).append(',');
+            }
+        }
+        return detectors.toString();
+    }
+
+    /**
+     * Convert a list of active detectors, like "1,3,", to a mask
+     *
+     * @param detectors the list of detectors separated by comas
+     * @return the detectors mask
+     **/
+    public static int stringToMask(String detectors) {
+        int mask = 0;
+        for (String detector : detectors.split(",")) {
+            if (detector.length() == 1 && detector.charAt(0) >= '1' && detector.charAt(0) <= '5') {
+                mask |= 1 << (detector.charAt(0) - '1');
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Convert an AMessage to the typed form. Types not known are
+     * converted to VOIDMSG.
+     *
+     * @param msg the message to convert
+     * @return the typed message
+     **/
+    public static WorldMessage fromAMessage(AMessage msg) {
+        String name = msg.getComp(0);
+        for (Type type : Type.values()) {
+            if (type != Type.DETECTED && type.name.equals(name)) {
+                switch (type) {
+                    case VOIDMSG:
+                        return VOID;
+                    case NOMESSAGE:
+                        return NONE;
+                    case MOVEDTO:
+                        return new WorldMessage(type, Integer.parseInt(msg.getComp(1)),
+                                Integer.parseInt(msg.getComp(2)), Integer.parseInt(msg.getComp(3)));
+                    default:
+                        return new WorldMessage(type, Integer.parseInt(msg.getComp(1)),
+                                Integer.parseInt(msg.getComp(2)), 0);
+                }
+            }
+        }
+        if (name.matches("[1-5,]*")) {
+            return new WorldMessage(Type.DETECTED, Integer.parseInt(msg.getComp(1)),
+                    Integer.parseInt(msg.getComp(2)), stringToMask(name));
+        }
+        return VOID;
+    }
+
+    /**
+     * Convert this message to the AMessage form
+     *
+     * @return the equivalent AMessage
+     **/
+    public AMessage toAMessage() {
+        switch (type) {
+            case VOIDMSG:
+            case NOMESSAGE:
+                return new AMessage(type.name, "", "", "");
+            case MOVEDTO:
+                return new AMessage(type.name, Integer.toString(x), Integer.toString(y), Integer.toString(value));
+            case DETECTED:
+                return new AMessage(maskToString(value), Integer.toString(x), Integer.toString(y), "");
+            default:
+                return new AMessage(type.name, Integer.toString(x), Integer.toString(y), "");
+        }
+    }
+
+    /**
+     * Show message on screen, in the same format than AMessage
+     **/
+    public void showMessage() {
+        toAMessage().showMessage();
+    }
+}
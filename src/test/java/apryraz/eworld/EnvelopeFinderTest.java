@@ -8,14 +8,22 @@
 package apryraz.eworld;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import static java.lang.System.exit;
 
 import org.sat4j.core.VecInt;
@@ -26,7 +34,12 @@ import org.sat4j.reader.*;
 
 import apryraz.eworld.*;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.*;
 
 /**
@@ -34,6 +47,42 @@ import org.junit.*;
 **/
 public class EnvelopeFinderTest {
 
+  /**
+  *  Dimension and number of steps of the test worlds of the tests directory,
+  *  world t stored in steps<t>.txt, states<t>.txt and envelopes<t>.txt
+  **/
+  static final int[][] TEST_WORLDS = { {5, 5}, {5, 7}, {7, 6}, {7, 12} };
+
+  /**
+  *  One of the test worlds, with the names of its files
+  **/
+  static class TestWorld {
+    final int index, dim, numSteps;
+    final String steps, states, envelopes;
+
+    TestWorld( int index, int dim, int numSteps ) {
+      this.index = index;
+      this.dim = dim;
+      this.numSteps = numSteps;
+      steps = "tests/steps" + index + ".txt";
+      states = "tests/states" + index + ".txt";
+      envelopes = "tests/envelopes" + index + ".txt";
+    }
+  }
+
+  /**
+  *  The test worlds, in order
+  *
+  *  @return the worlds of TEST_WORLDS
+  **/
+  static List<TestWorld> testWorlds() {
+    List<TestWorld> worlds = new ArrayList<>();
+    for (int t = 1; t <= TEST_WORLDS.length; t++) {
+      worlds.add(new TestWorld(t, TEST_WORLDS[t-1][0], TEST_WORLDS[t-1][1]));
+    }
+    return worlds;
+  }
+
 
  /**
  *  This function should execute the next step of the agent, and the assertEqual
@@ -132,7 +181,28 @@ public class EnvelopeFinderTest {
   public void testMakeSeqOfSteps( int wDim, int numSteps, String fileSteps, String fileStates, String fileEnvelopes  )
        throws   IOException,  ContradictionException, TimeoutException {
      // Load information about the world dimension in the agent
-     EnvelopeFinder eAgent = new EnvelopeFinder(wDim);
+     testMakeSeqOfSteps( new EnvelopeFinder(wDim), wDim, numSteps, fileSteps, fileStates, fileEnvelopes );
+  }
+
+  /**
+  *   Same as the previous function, but with an agent already created, so the
+  *   same sequences can be checked with the different inference modes.
+  *
+  *   @param eAgent EnvelopeFinder agent, already configured
+  *   @param wDim the dimension of world
+  *   @param numSteps num of steps to perform
+  *   @param fileSteps file name with sequence of steps to perform
+  *   @param fileStates file name with sequence of target states
+  *   @param fileEnvelopes file name with sequence of envelopes positions
+  *
+  * @throws IOException  Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if running any operation spends more
+  * 	                     time computing than a certain timeout.
+  **/
+  public void testMakeSeqOfSteps( EnvelopeFinder eAgent, int wDim, int numSteps, String fileSteps,
+                                  String fileStates, String fileEnvelopes )
+       throws   IOException,  ContradictionException, TimeoutException {
      // Load information about the World into the envAgent
      EnvelopeWorldEnv envAgent = new EnvelopeWorldEnv(wDim, fileEnvelopes);
      // Load list of states
@@ -148,6 +218,22 @@ public class EnvelopeFinderTest {
      for (int i = 0; i < numSteps; i++) { testMakeSimpleStep(eAgent,seqOfStates.get(i)); }
   }
 
+  /**
+  *   Same as the previous function, with the files of one of the test worlds
+  *
+  *   @param eAgent EnvelopeFinder agent, already configured
+  *   @param world the test world
+  *
+  * @throws IOException  Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if running any operation spends more
+  * 	                     time computing than a certain timeout.
+  **/
+  public void testMakeSeqOfSteps( EnvelopeFinder eAgent, TestWorld world )
+       throws   IOException,  ContradictionException, TimeoutException {
+     testMakeSeqOfSteps( eAgent, world.dim, world.numSteps, world.steps, world.states, world.envelopes );
+  }
+
   /**
   * Tests the specific configuration of: "steps1.txt" , "states1.txt", "envelopes1.txt"
   * 5x5 world, Envelopes at ((2,2),(4,4)) and 5 steps.
@@ -204,4 +290,1139 @@ public class EnvelopeFinderTest {
   @Test public void EFinderTest4()   throws IOException,  ContradictionException, TimeoutException {
     testMakeSeqOfSteps(  7,  12, "tests/steps4.txt", "tests/states4.txt", "tests/envelopes4.txt" );
   }
+
+  /**
+  * Run the four configurations of tests with agents that use the given
+  * inference mode, that must give the same states than the default one.
+  *
+  * @param frontier true to use the frontier-only inference
+  * @param strategy the inference strategy of the agents
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  public void testAllSeqOfSteps( boolean frontier, InferenceStrategy strategy )
+       throws   IOException,  ContradictionException, TimeoutException {
+    testAllSeqOfSteps( false, frontier, strategy );
+  }
+
+  /**
+  * Run the four configurations of tests with agents that use the given
+  * formula engine and inference mode.
+  *
+  * @param propagation true to use the native propagation engine instead of SAT4J
+  * @param frontier true to use the frontier-only inference
+  * @param strategy the inference strategy of the agents
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  public void testAllSeqOfSteps( boolean propagation, boolean frontier, InferenceStrategy strategy )
+       throws   IOException,  ContradictionException, TimeoutException {
+    for (TestWorld world : testWorlds()) {
+      EnvelopeFinder eAgent = new EnvelopeFinder(world.dim, propagation);
+      eAgent.setFrontierInference(frontier);
+      eAgent.setInferenceStrategy(strategy);
+      testMakeSeqOfSteps( eAgent, world );
+    }
+  }
+
+  /**
+  * Tests the four configurations with the frontier-only inference mode.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderFrontierTest()   throws IOException,  ContradictionException, TimeoutException {
+    testAllSeqOfSteps( true, new SequentialInference() );
+  }
+
+  /**
+  * Tests the four configurations with the backbone inference strategy,
+  * with and without the frontier-only mode.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderBackboneTest()   throws IOException,  ContradictionException, TimeoutException {
+    testAllSeqOfSteps( false, new BackboneInference() );
+    testAllSeqOfSteps( true, new BackboneInference() );
+  }
+
+  /**
+  * Tests the four configurations with the native propagation engine, with its
+  * own inference strategy and with the strategies that ask satisfiability
+  * questions to the engine.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderPropagationTest()   throws IOException,  ContradictionException, TimeoutException {
+    testAllSeqOfSteps( true, false, new PropagationInference() );
+    testAllSeqOfSteps( true, true, new PropagationInference() );
+    testAllSeqOfSteps( true, false, new SequentialInference() );
+    testAllSeqOfSteps( true, false, new BackboneInference() );
+  }
+
+  /**
+  * Tests the four configurations with the parallel inference strategy,
+  * with three worker solvers.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderParallelTest()   throws IOException,  ContradictionException, TimeoutException {
+    testAllSeqOfSteps( false, new ParallelInference(3) );
+    testAllSeqOfSteps( true, new ParallelInference(3) );
+  }
+
+  /**
+  * Tests that only the agent that owns the workers of a parallel inference
+  * logs its clauses, and that the log is emptied at every inference, with
+  * two agents that share the workers from the middle of the sequence.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if the solver does not finish in time.
+  **/
+  @Test public void EFinderParallelLogTest()   throws IOException,  ContradictionException, TimeoutException {
+    for (TestWorld world : testWorlds()) {
+      ArrayList<EFState> seqOfStates = loadListOfTargetStates(world.dim, world.numSteps, world.states);
+      InferenceStrategy parallel = new ParallelInference(2);
+      EnvelopeFinder[] agents = { new EnvelopeFinder(world.dim), new EnvelopeFinder(world.dim) };
+      for (EnvelopeFinder eAgent : agents) {
+        eAgent.loadListOfSteps(world.numSteps, world.steps);
+        eAgent.setEnvironment(new EnvelopeWorldEnv(world.dim, world.envelopes));
+      }
+      agents[0].setInferenceStrategy(parallel);
+      int half = world.numSteps / 2;
+      for (int i = 0; i < world.numSteps; i++) {
+        if (i == half) {
+          agents[1].setInferenceStrategy(parallel);
+        }
+        for (EnvelopeFinder eAgent : agents) {
+          testMakeSimpleStep(eAgent, seqOfStates.get(i));
+        }
+        // Both agents use the workers after half, but the second one has them last
+        assertNull(agents[i < half ? 1 : 0].addedClauses);
+        assertTrue(agents[i < half ? 0 : 1].addedClauses.isEmpty());
+      }
+    }
+  }
+
+  /**
+  * Tests that agents that compact their formula every two steps give the
+  * same states, with the SAT solver, the parallel workers and the
+  * propagation engine.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderCompactionTest()   throws IOException,  ContradictionException, TimeoutException {
+    InferenceStrategy parallel = new ParallelInference(2);
+    for (TestWorld world : testWorlds()) {
+      EnvelopeFinder[] agents = { new EnvelopeFinder(world.dim), new EnvelopeFinder(world.dim),
+                                  new EnvelopeFinder(world.dim, true) };
+      agents[1].setInferenceStrategy(parallel);
+      for (EnvelopeFinder eAgent : agents) {
+        eAgent.setCompactionInterval(2);
+        testMakeSeqOfSteps( eAgent, world );
+      }
+      // Right after a compaction the formula only has one fact per reading and crossed position
+      agents[0].compactFormula();
+      assertTrue(agents[0].factClauses().size() <= 6 * world.dim * world.dim);
+    }
+  }
+
+  /**
+  * Tests that an agent with lazy detector variables gives the same states
+  * than the full formula, with the sequential, parallel and backbone
+  * inference and after a compaction, and that it allocates fewer variables.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if the solver does not finish in time.
+  **/
+  @Test public void EFinderLazyDetectorsTest()   throws IOException,  ContradictionException, TimeoutException {
+    InferenceStrategy parallel = new ParallelInference(2);
+    for (TestWorld world : testWorlds()) {
+      int wDim = world.dim;
+      EnvelopeFinder[] agents = { new EnvelopeFinder(wDim, false, true), new EnvelopeFinder(wDim, false, true),
+                                  new EnvelopeFinder(wDim, false, true), new EnvelopeFinder(wDim, false, true) };
+      agents[1].setInferenceStrategy(parallel);
+      agents[2].setInferenceStrategy(new BackboneInference());
+      agents[3].setCompactionInterval(2);
+      for (EnvelopeFinder eAgent : agents) {
+        testMakeSeqOfSteps( eAgent, world );
+        assertTrue(eAgent.numVariables < 7 * wDim * wDim);
+      }
+    }
+  }
+
+  /**
+  * Tests the tiled inference, with tiles smaller than the world and with
+  * borders at every position: against the states of the test worlds, that
+  * it only asks the tiles with new readings and the agent builds no formula
+  * of its own, with compactions, and against the agent with
+  * the formula of the whole world, step by step, in random worlds and in a
+  * world where only one position is left without a past clause.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if the solver does not finish in time.
+  **/
+  @Test public void EFinderTiledTest()   throws IOException,  ContradictionException, TimeoutException {
+    for (TestWorld world : testWorlds()) {
+      int wDim = world.dim;
+      for (int tileSize : new int[] { 1, 2, 3, wDim }) {
+        EnvelopeFinder eAgent = new EnvelopeFinder(wDim, SolverBackend.DEFAULT, new TiledInference(tileSize));
+        testMakeSeqOfSteps( eAgent, world );
+        // At most the positions of 3x3 tiles around every step are asked
+        int asked = Math.min(3 * tileSize + 2, wDim);
+        assertTrue(eAgent.numSolverCalls <= (long) world.numSteps * asked * asked);
+        // The agent has no formula of the whole world
+        assertNull(eAgent.solver);
+        assertNull(eAgent.addedClauses);
+        assertTrue(eAgent.factClauses().isEmpty());
+      }
+      // The tiles are built again after every compaction
+      EnvelopeFinder eAgent = new EnvelopeFinder(wDim, SolverBackend.PROPAGATION, new TiledInference(2));
+      eAgent.setCompactionInterval(2);
+      testMakeSeqOfSteps( eAgent, world );
+      try {
+        eAgent.setInferenceStrategy(new SequentialInference());
+        fail("A tiled agent has no formula for other strategies");
+      } catch (IllegalStateException ex) {
+        // expected
+      }
+    }
+    List<WorldFile> worlds = new ArrayList<>();
+    worlds.add(new WorldFile(3, new int[] { 2, 1 }, new int[] { 2, 2, 1, 3 }, new ArrayList<>()));
+    Random random = new Random(300);
+    for (int w = 0; w < 100; w++) {
+      int wDim = 2 + random.nextInt(7);
+      worlds.add(randomWorld(random, wDim, 1 + random.nextInt(3), 1 + random.nextInt(2 * wDim)));
+    }
+    for (int w = 0; w < worlds.size(); w++) {
+      int wDim = worlds.get(w).worldDim;
+      EnvelopeFinder[] agents = new EnvelopeFinder[4];
+      agents[0] = new EnvelopeFinder(wDim);
+      for (int tileSize = 1; tileSize <= 3; tileSize++) {
+        agents[tileSize] = new EnvelopeFinder(wDim, SolverBackend.DEFAULT, new TiledInference(tileSize));
+      }
+      assertSameStates("world " + w, worlds.get(w), agents);
+    }
+  }
+
+  /**
+  * Tests that an agent with an inference cache gives the same states, that
+  * a second run with the same cache answers from it without asking the
+  * solver, and that agents sharing a cache over random worlds, and over a
+  * world where one position is left not crossed, have the same state than
+  * the agent without cache after every step.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if the solver does not finish in time.
+  **/
+  @Test public void EFinderInferenceCacheTest()   throws IOException,  ContradictionException, TimeoutException {
+    for (TestWorld world : testWorlds()) {
+      InferenceCache cache = new InferenceCache(64);
+      long[] calls = new long[2];
+      for (int run = 0; run < 2; run++) {
+        EnvelopeFinder eAgent = new EnvelopeFinder(world.dim);
+        eAgent.setInferenceCache(cache);
+        testMakeSeqOfSteps( eAgent, world );
+        calls[run] = eAgent.getNumSolverCalls();
+      }
+      assertEquals(0, calls[1]);
+      assertTrue(cache.getHits() >= world.numSteps);
+    }
+    InferenceCache shared = new InferenceCache(256);
+    List<WorldFile> worlds = new ArrayList<>();
+    Random random = new Random(24);
+    for (int w = 0; w < 150; w++) {
+      int wDim = 2 + random.nextInt(6);
+      worlds.add(randomWorld(random, wDim, 1 + random.nextInt(3), 1 + random.nextInt(3 * wDim)));
+    }
+    worlds.add(new WorldFile(3, new int[] { 3, 1 }, new int[] { 2, 2, 3, 2, 3, 3, 3, 1 }, new ArrayList<>()));
+    for (int w = 0; w < worlds.size(); w++) {
+      int wDim = worlds.get(w).worldDim;
+      EnvelopeFinder cached = new EnvelopeFinder(wDim);
+      cached.setInferenceCache(shared);
+      assertSameStates("world " + w, worlds.get(w), new EnvelopeFinder(wDim), cached);
+    }
+    assertTrue(shared.getHits() > 0);
+  }
+
+  /**
+  * Tests that agents with other SAT4J configurations and with the
+  * propagation engine selected by name give the same states, and that
+  * an unknown backend is rejected.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if the solver does not finish in time.
+  **/
+  @Test public void EFinderSolverBackendTest()   throws IOException,  ContradictionException, TimeoutException {
+    for (TestWorld world : testWorlds()) {
+      for (String name : new String[] { "Light", "Glucose", "MiniSATHeap", "propagation" }) {
+        EnvelopeFinder eAgent = new EnvelopeFinder(world.dim, SolverBackend.forName(name), false);
+        assertEquals(name, eAgent.getSolverBackend().toString());
+        testMakeSeqOfSteps( eAgent, world );
+      }
+    }
+    try {
+      SolverBackend.forName("NoSuchSolver");
+      fail("An unknown backend must be rejected");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+  }
+
+  /**
+  * Tests that the batch runner gives the final states of all the test
+  * configurations read from a manifest, with the agent of the main program
+  * and with the tiled agent selected by its property, that it runs all the
+  * steps of the file without a number of steps, and reports a missing steps
+  * or envelopes file as an error without stopping the other scenarios.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws InterruptedException if the test is interrupted while waiting.
+  **/
+  @Test public void BatchRunnerTest()   throws IOException, InterruptedException {
+    File manifest = File.createTempFile("manifest", ".txt");
+    manifest.deleteOnExit();
+    try (java.io.PrintWriter out = new java.io.PrintWriter(manifest)) {
+      out.println("# dimension numSteps stepsFile envelopesFile");
+      for (TestWorld world : testWorlds()) {
+        out.println(world.dim + " " + world.numSteps + " " + world.steps + " " + world.envelopes);
+      }
+      out.println("5 5 tests/missing.txt tests/envelopes1.txt");
+      out.println("5 5 tests/steps1.txt tests/missing.txt");
+      out.println("5 0 tests/steps1.txt tests/envelopes1.txt");
+    }
+    List<BatchRunner.Scenario> scenarios = BatchRunner.loadManifest(manifest.getPath());
+    assertEquals(TEST_WORLDS.length + 3, scenarios.size());
+    // The agents are configured with the properties of the main program
+    for (String tileSize : new String[] { null, "2" }) {
+      List<BatchRunner.Result> results;
+      if (tileSize != null) {
+        System.setProperty("eworld.tileSize", tileSize);
+      }
+      try {
+        results = new BatchRunner(2).run(scenarios);
+      } finally {
+        System.clearProperty("eworld.tileSize");
+      }
+      for (TestWorld world : testWorlds()) {
+        ArrayList<EFState> states = loadListOfTargetStates(world.dim, world.numSteps, world.states);
+        assertEquals(states.get(world.numSteps - 1), results.get(world.index - 1).state);
+        assertEquals(tileSize == null, results.get(world.index - 1).metrics.getSolverClauses() > 0);
+      }
+      assertTrue(results.get(TEST_WORLDS.length).error instanceof IOException);
+      assertTrue(results.get(TEST_WORLDS.length + 1).error instanceof IOException);
+      // Without a number of steps all the steps of the file are run
+      assertEquals(results.get(0).state, results.get(TEST_WORLDS.length + 2).state);
+      assertEquals(5, results.get(TEST_WORLDS.length + 2).metrics.getSteps());
+    }
+  }
+
+  /**
+  * Tests that agents run by the AgentRuntime, sharing environments that
+  * answer through their mailboxes, reach the same final states, and that
+  * an interrupted agent gets an exception and keeps its interrupted status.
+  *
+  * @throws Exception if an agent fails or the test is interrupted.
+  **/
+  @Test public void AgentRuntimeTest()   throws Exception {
+    AgentRuntime runtime = new AgentRuntime();
+    List<java.util.concurrent.CompletableFuture<EFState>> results = new ArrayList<>();
+    for (TestWorld world : testWorlds()) {
+      AgentRuntime.EnvironmentActor env =
+          runtime.startEnvironment(new EnvelopeWorldEnv(world.dim, world.envelopes));
+      for (int a = 0; a < 10; a++) {
+        EnvelopeFinder eAgent = new EnvelopeFinder(world.dim);
+        eAgent.loadListOfSteps(world.numSteps, world.steps);
+        results.add(runtime.startAgent(eAgent, env, world.numSteps));
+      }
+    }
+    WorldChannel channel = runtime.startEnvironment(new EnvelopeWorldEnv(5, "tests/envelopes1.txt")).newChannel();
+    Thread.currentThread().interrupt();
+    try {
+      channel.acceptMessage(new WorldMessage(WorldMessage.Type.DETECTSAT, 1, 1, 0));
+      fail("An interrupted agent must not get an answer");
+    } catch (IllegalStateException ex) {
+      assertTrue(Thread.interrupted());
+    }
+    runtime.close();
+    for (TestWorld world : testWorlds()) {
+      ArrayList<EFState> states = loadListOfTargetStates(world.dim, world.numSteps, world.states);
+      for (int a = 0; a < 10; a++) {
+        assertEquals(states.get(world.numSteps - 1), results.get((world.index - 1) * 10 + a).get());
+      }
+    }
+  }
+
+  /**
+  * Tests that agents reading their steps while they move, from the steps
+  * files or from a list of positions, go through the same states, and that
+  * the steps can be split in several lines.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderStreamStepsTest()   throws IOException,  ContradictionException, TimeoutException {
+    for (TestWorld world : testWorlds()) {
+      ArrayList<EFState> states = loadListOfTargetStates(world.dim, world.numSteps, world.states);
+      List<Position> steps = new ArrayList<>();
+      StepReader reader = StepReader.open(world.steps);
+      reader.forEachRemaining(steps::add);
+      assertEquals(world.numSteps, steps.size());
+      EnvelopeFinder[] agents = { new EnvelopeFinder(world.dim), new EnvelopeFinder(world.dim) };
+      agents[0].streamSteps(world.steps);
+      agents[1].setStepSource(steps.iterator());
+      for (EnvelopeFinder eAgent : agents) {
+        eAgent.setEnvironment(new EnvelopeWorldEnv(world.dim, world.envelopes));
+        int numSteps = 0;
+        while (eAgent.hasNextStep()) {
+          testMakeSimpleStep(eAgent, states.get(numSteps++));
+        }
+        assertEquals(world.numSteps, numSteps);
+      }
+    }
+    StepReader reader = new StepReader(new java.io.StringReader(" 1,2\n30,4\t5,6\n"));
+    int[] expected = { 1, 2, 30, 4, 5, 6 };
+    for (int i = 0; i < expected.length; i += 2) {
+      Position p = reader.next();
+      assertEquals(expected[i], p.x);
+      assertEquals(expected[i + 1], p.y);
+    }
+    assertFalse(reader.hasNext());
+  }
+
+  /**
+  * Tests that the memory mapped parser reads the positions of the files,
+  * with any whitespace between them, that it rejects malformed positions
+  * with the same error as the steps reader and coordinates that do not fit
+  * in an int, and that loading more steps
+  * than the file has is an IOException.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  **/
+  @Test public void PositionFileTest()   throws IOException {
+    assertArrayEquals(new int[] { 2, 2, 4, 4 }, PositionFile.readPairs("tests/envelopes1.txt"));
+    File file = File.createTempFile("positions", ".txt");
+    file.deleteOnExit();
+    Files.write(file.toPath(), "12,3 4,56\r\n7,8\t9,10".getBytes("US-ASCII"));
+    assertArrayEquals(new int[] { 12, 3, 4, 56, 7, 8, 9, 10 }, PositionFile.readPairs(file.getPath()));
+    assertArrayEquals(new int[] { 12, 3, 4, 56 }, PositionFile.readPairs(file.getPath(), 2));
+    try {
+      new EnvelopeFinder(5).loadListOfSteps(5, file.getPath());
+      fail("Missing steps accepted");
+    } catch (IOException ex) {
+      // expected
+    }
+    Files.write(file.toPath(), "1,2 3 4,5".getBytes("US-ASCII"));
+    String message = null;
+    try {
+      PositionFile.readPairs(file.getPath());
+      fail("Malformed position accepted");
+    } catch (NumberFormatException ex) {
+      message = ex.getMessage();
+    }
+    StepReader reader = StepReader.open(file.getPath());
+    try {
+      reader.forEachRemaining(step -> { });
+      fail("Malformed step accepted");
+    } catch (NumberFormatException ex) {
+      assertEquals(message, ex.getMessage());
+    }
+    reader.close();
+    // The largest int is read, a coordinate past it is malformed
+    Files.write(file.toPath(), "2147483647,1 1,2147483648".getBytes("US-ASCII"));
+    try {
+      PositionFile.readPairs(file.getPath());
+      fail("Coordinate out of range accepted");
+    } catch (NumberFormatException ex) {
+      assertTrue(ex.getMessage().contains("position 2"));
+    }
+    assertArrayEquals(new int[] { 2147483647, 1 }, PositionFile.readPairs(file.getPath(), 1));
+  }
+
+  /**
+  * Tests that the test worlds converted to binary world files are read back
+  * equal, that an agent loaded from them goes through their states, and
+  * that damaged files are an IOException.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void WorldFileTest()   throws IOException,  ContradictionException, TimeoutException {
+    for (TestWorld world : testWorlds()) {
+      WorldFile text = WorldFile.fromText(world.dim, world.envelopes,
+                                          world.steps, world.states);
+      File file = File.createTempFile("world", ".ewb");
+      file.deleteOnExit();
+      text.save(file.getPath());
+      WorldFile binary = WorldFile.load(file.getPath());
+      assertEquals(world.dim, binary.worldDim);
+      assertArrayEquals(text.envelopes, binary.envelopes);
+      assertArrayEquals(text.steps, binary.steps);
+      assertEquals(loadListOfTargetStates(world.dim, world.numSteps, world.states), binary.states);
+
+      EnvelopeFinder eAgent = new EnvelopeFinder(binary.worldDim);
+      eAgent.setEnvironment(new EnvelopeWorldEnv(binary));
+      eAgent.loadListOfSteps(binary);
+      for (EFState state : binary.states) {
+        testMakeSimpleStep(eAgent, state);
+      }
+      assertFalse(eAgent.hasNextStep());
+
+      // Bad width of the coordinates, more steps than bytes, and a truncated file
+      byte[] good = Files.readAllBytes(file.toPath());
+      byte[][] damaged = { good.clone(), good.clone(), Arrays.copyOf(good, good.length - 3) };
+      damaged[0][8] = 3;
+      int stepsCount = 13 + 2 * text.envelopes.length;
+      ByteBuffer.wrap(damaged[1]).putInt(stepsCount, Integer.MAX_VALUE / 2);
+      for (byte[] bytes : damaged) {
+        Files.write(file.toPath(), bytes);
+        try {
+          WorldFile.load(file.getPath());
+          fail("A damaged world file is loaded");
+        } catch (IOException expected) {
+        }
+      }
+    }
+  }
+
+  /**
+  * Tests that an agent restored from a checkpoint saved in the middle of a
+  * run, with its steps loaded from the file or read while it moves, goes
+  * through the same states than the agent that did all the steps, and that
+  * a damaged checkpoint leaves the agent unchanged.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderCheckpointTest()   throws IOException,  ContradictionException, TimeoutException {
+    ArrayList<EFState> states = loadListOfTargetStates(7, 12, "tests/states4.txt");
+    File checkpoint = File.createTempFile("finder", ".ckp");
+    checkpoint.deleteOnExit();
+    EnvelopeFinder eAgent = new EnvelopeFinder(7);
+    eAgent.setEnvironment(new EnvelopeWorldEnv(7, "tests/envelopes4.txt"));
+    eAgent.loadListOfSteps(12, "tests/steps4.txt");
+    eAgent.setCheckpoint(checkpoint.getPath(), 5);
+    for (int i = 0; i < 7; i++) {
+      testMakeSimpleStep(eAgent, states.get(i));
+    }
+    // The checkpoint of step 5 is restored twice
+    for (boolean streaming : new boolean[] { false, true }) {
+      EnvelopeFinder restored = new EnvelopeFinder(7);
+      restored.setEnvironment(new EnvelopeWorldEnv(7, "tests/envelopes4.txt"));
+      if (streaming) {
+        restored.streamSteps("tests/steps4.txt");
+      } else {
+        restored.loadListOfSteps(12, "tests/steps4.txt");
+      }
+      restored.restoreCheckpoint(checkpoint.getPath());
+      assertEquals(states.get(4), restored.getState());
+      for (int i = 5; i < 12; i++) {
+        testMakeSimpleStep(restored, states.get(i));
+      }
+      assertFalse(restored.hasNextStep());
+    }
+    // A checkpoint past the steps of the agent, or truncated, does not change it
+    byte[] good = Files.readAllBytes(checkpoint.toPath());
+    byte[][] damaged = { good.clone(), Arrays.copyOf(good, good.length - 1) };
+    ByteBuffer.wrap(damaged[0]).putInt(8, 13);
+    for (byte[] bytes : damaged) {
+      Files.write(checkpoint.toPath(), bytes);
+      EnvelopeFinder restored = new EnvelopeFinder(7);
+      restored.setEnvironment(new EnvelopeWorldEnv(7, "tests/envelopes4.txt"));
+      restored.loadListOfSteps(12, "tests/steps4.txt");
+      try {
+        restored.restoreCheckpoint(checkpoint.getPath());
+        fail("A damaged checkpoint is restored");
+      } catch (IOException expected) {
+      }
+      assertEquals(0, restored.idNextStep);
+      assertEquals(new EFState(7), restored.getState());
+      testMakeSimpleStep(restored, states.get(0));
+    }
+  }
+
+  /**
+  * Tests that the regression harness passes the test worlds with every
+  * inference, reports the step and positions of a changed state, reports
+  * a scenario that can not run and the scenarios stopped at the first
+  * divergence apart, and rejects a manifest line with more steps than its
+  * steps file.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws InterruptedException if the test is interrupted while waiting.
+  **/
+  @Test public void RegressionHarnessTest()   throws IOException, InterruptedException {
+    List<String> names = new ArrayList<>();
+    List<WorldFile> worlds = new ArrayList<>();
+    for (TestWorld world : testWorlds()) {
+      names.add("world" + world.index);
+      worlds.add(WorldFile.fromText(world.dim, world.envelopes,
+                                    world.steps, world.states));
+    }
+    assertTrue(new RegressionHarness(EnvelopeFinder::new, 4, false).run(names, worlds).passed());
+    assertTrue(new RegressionHarness(dim -> new EnvelopeFinder(dim, true), 4, false).run(names, worlds).passed());
+
+    // Position (1,1) of the third state of world 4 changed
+    EFState golden = worlds.get(3).states.get(2);
+    golden.set(1, 1, golden.isCrossed(1, 1) ? "?" : "X");
+    RegressionHarness.Report report = new RegressionHarness(EnvelopeFinder::new, 4, false).run(names, worlds);
+    assertEquals(TEST_WORLDS.length - 1, report.numPassed());
+    List<RegressionHarness.Divergence> divergences = report.divergences;
+    assertEquals(1, divergences.size());
+    assertEquals("world4", divergences.get(0).scenario);
+    assertEquals(3, divergences.get(0).step);
+    assertEquals(1, divergences.get(0).cells.size());
+    assertEquals(1, divergences.get(0).cells.get(0).x);
+    assertEquals(1, divergences.get(0).cells.get(0).y);
+
+    // A world without states fails on its own, and with stopAtFirst the
+    // scenarios after the divergence are stopped, not passed
+    names.add(0, "world4");
+    worlds.add(0, worlds.remove(worlds.size() - 1));
+    names.remove(names.size() - 1);
+    names.add("no states");
+    worlds.add(new WorldFile(5, worlds.get(1).envelopes, worlds.get(1).steps, new ArrayList<>()));
+    report = new RegressionHarness(EnvelopeFinder::new, 4, false).run(names, worlds);
+    assertEquals(1, report.divergences.size());
+    assertEquals(1, report.failures.size());
+    assertTrue(report.failures.get(0).startsWith("no states: "));
+    assertEquals(TEST_WORLDS.length - 1, report.numPassed());
+    report = new RegressionHarness(EnvelopeFinder::new, 1, true).run(names, worlds);
+    assertEquals(1, report.divergences.size());
+    assertEquals(1, report.failures.size());
+    assertEquals(TEST_WORLDS.length - 1, report.stopped.size());
+    assertEquals(0, report.numPassed());
+    assertFalse(report.passed());
+
+    File manifest = File.createTempFile("manifest", ".txt");
+    manifest.deleteOnExit();
+    Files.write(manifest.toPath(), "5 6 tests/steps1.txt tests/envelopes1.txt tests/states1.txt\n".getBytes("US-ASCII"));
+    try {
+      RegressionHarness.loadManifest(manifest.getPath(), new ArrayList<>());
+      fail("More steps than the steps file accepted");
+    } catch (IOException ex) {
+      assertTrue(ex.getMessage().contains("5 6 tests/steps1.txt"));
+    }
+  }
+
+  /**
+  * Tests that an agent exploring on its own discards all the positions
+  * without envelope of the test worlds, with fewer steps than positions,
+  * also when it is selected with the eworld.explore property.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderExploreTest()   throws IOException,  ContradictionException, TimeoutException {
+    for (TestWorld world : testWorlds()) {
+      int numEnvelopes = PositionFile.readPairs(world.envelopes).length / 2;
+      for (boolean propagation : new boolean[] { false, true }) {
+        EnvelopeFinder eAgent = new EnvelopeFinder(world.dim, propagation);
+        eAgent.setEnvironment(new EnvelopeWorldEnv(world.dim, world.envelopes));
+        eAgent.explore();
+        while (eAgent.hasNextStep()) {
+          eAgent.runNextStep();
+        }
+        assertEquals(world.dim * world.dim - numEnvelopes, eAgent.getState().numCrossed());
+        assertTrue(eAgent.idNextStep < world.dim * world.dim / 2);
+      }
+    }
+    // The runs of the main program explore with its property, without reading the steps file
+    TestWorld world = testWorlds().get(0);
+    EnvelopeFinder eAgent = new EnvelopeFinder(world.dim);
+    eAgent.setEnvironment(new EnvelopeWorldEnv(world.dim, world.envelopes));
+    System.setProperty("eworld.explore", "true");
+    try {
+      EnvelopeWorld.runSteps(eAgent, 0, "tests/missing.txt", null);
+    } finally {
+      System.clearProperty("eworld.explore");
+    }
+    assertEquals(world.dim * world.dim - 2, eAgent.getState().numCrossed());
+  }
+
+  /**
+  * Tests that the metrics of the agent count the steps, one satisfiability
+  * question per position and step with the sequential inference, and the
+  * positions resolved at the end of the sequence, and that the solver
+  * statistics are read from the solver of the agent.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderMetricsTest()   throws IOException,  ContradictionException, TimeoutException {
+    EnvelopeFinder eAgent = new EnvelopeFinder(5);
+    testMakeSeqOfSteps(eAgent, 5, 7, "tests/steps2.txt", "tests/states2.txt", "tests/envelopes2.txt");
+    FinderMetrics metrics = eAgent.getMetrics();
+    assertEquals(7, metrics.getSteps());
+    assertEquals(7 * 25, metrics.getSolverCalls());
+    assertEquals(25, metrics.getLastStepSolverCalls());
+    assertEquals(eAgent.getState().numCrossed(), metrics.getPositionsResolved());
+    assertTrue(metrics.getSolverClauses() > 0);
+    assertEquals(eAgent.solverClauses(), metrics.getSolverClauses());
+    assertTrue(metrics.getPropagations() > 0);
+    assertTrue(metrics.getInferenceNanos() > 0);
+  }
+
+  /**
+  * Tests that a Gamma template saved to a file is read back with the same
+  * clauses, that agents created with the templates read from a cache
+  * directory give the same states, that damaged files are rejected and
+  * generated again, and that only a few templates are kept in memory.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException needed for solver.isSatisfiable method, its thrown if
+  *                          exceeds the timeout.
+  **/
+  @Test public void EFinderGammaTemplateTest()   throws IOException,  ContradictionException, TimeoutException {
+    File directory = Files.createTempDirectory("gamma").toFile();
+    GammaTemplate.clearCache();
+    GammaTemplate.setCacheDirectory(directory);
+    try {
+      new EnvelopeFinder(5);
+      new EnvelopeFinder(7);
+      GammaTemplate saved = GammaTemplate.load(new File(directory, "gamma-7.bin"));
+      assertArrayEquals(GammaTemplate.forDimension(7, null).arena, saved.arena);
+      // Next agents load the templates from the files
+      GammaTemplate.clearCache();
+      testAllSeqOfSteps( false, new SequentialInference() );
+      // Truncated file, huge arena, negative number of clauses and a literal out of range
+      File file = new File(directory, "gamma-5.bin");
+      byte[] good = Files.readAllBytes(file.toPath());
+      byte[][] damaged = { Arrays.copyOf(good, good.length - 6), good.clone(), good.clone(), good.clone() };
+      ByteBuffer.wrap(damaged[1]).putInt(16, Integer.MAX_VALUE);
+      ByteBuffer.wrap(damaged[2]).putInt(12, -1);
+      ByteBuffer.wrap(damaged[3]).putInt(24, 1000000);
+      for (byte[] bytes : damaged) {
+        Files.write(file.toPath(), bytes);
+        try {
+          GammaTemplate.load(file);
+          fail("A damaged template file is loaded");
+        } catch (IOException expected) {
+        }
+        GammaTemplate.clearCache();
+        testMakeSeqOfSteps( new EnvelopeFinder(5), testWorlds().get(0) );
+        assertArrayEquals(good, Files.readAllBytes(file.toPath()));
+      }
+      for (int wDim = 2; wDim < 2 + 2 * GammaTemplate.MAX_CACHED; wDim++) {
+        GammaTemplate.forDimension(wDim, new EnvelopeFinder(wDim));
+        assertTrue(GammaTemplate.cache.size() <= GammaTemplate.MAX_CACHED);
+      }
+    } finally {
+      GammaTemplate.setCacheDirectory(null);
+      GammaTemplate.clearCache();
+    }
+  }
+
+  /**
+  * Tests the snapshot and the differences between the states of consecutive
+  * steps, read from the file of states of the first configuration.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  **/
+  @Test public void EFStateDiffTest()   throws IOException {
+    ArrayList<EFState> seqOfStates = loadListOfTargetStates(5, 5, "tests/states1.txt");
+    EFState snapshot = seqOfStates.get(0).copy();
+    assertEquals(seqOfStates.get(0), snapshot);
+    assertEquals(seqOfStates.get(0).hashCode(), snapshot.hashCode());
+    snapshot.set(3, 3, "X");
+    assertFalse(snapshot.equals(seqOfStates.get(0)));
+    for (int s = 1; s < seqOfStates.size(); s++) {
+      EFState before = seqOfStates.get(s-1), after = seqOfStates.get(s);
+      List<Position> changed = before.diff(after);
+      assertEquals(after.numCrossed() - before.numCrossed(), changed.size());
+      for (Position position : changed) {
+        assertEquals("?", before.get(position.x, position.y));
+        assertEquals("X", after.get(position.x, position.y));
+      }
+    }
+  }
+
+  /**
+  * Reading of the detectors at (x,y) computed envelope by envelope, with the
+  * rules of the original environment: detectors 1 to 4 are also active at
+  * the limits of the world when there is any envelope.
+  **/
+  static int bruteForceReading(int wDim, int[] envelopes, int x, int y) {
+    int mask = 0;
+    if (envelopes.length == 0) {
+      return mask;
+    }
+    mask |= x + 1 > wDim ? 1 : 0;
+    mask |= y + 1 > wDim ? 2 : 0;
+    mask |= x - 1 <= 0 ? 4 : 0;
+    mask |= y - 1 <= 0 ? 8 : 0;
+    for (int e = 0; e < envelopes.length; e += 2) {
+      int dx = envelopes[e] - x, dy = envelopes[e + 1] - y;
+      mask |= dx == 1 && Math.abs(dy) <= 1 ? 1 : 0;
+      mask |= Math.abs(dx) <= 1 && dy == 1 ? 2 : 0;
+      mask |= dx == -1 && Math.abs(dy) <= 1 ? 4 : 0;
+      mask |= Math.abs(dx) <= 1 && dy == -1 ? 8 : 0;
+      mask |= dx == 0 && dy == 0 ? 16 : 0;
+    }
+    return mask;
+  }
+
+  /**
+  * Tests the readings of the occupancy bitmap of the environment against
+  * the envelope by envelope rules, at every position of random worlds with
+  * envelopes at the corners and borders, and of worlds without envelopes.
+  **/
+  @Test public void MetalSensorReadingTest() {
+    Random random = new Random(8);
+    for (int w = 0; w < 200; w++) {
+      int wDim = 1 + random.nextInt(12);
+      int[] envelopes = new int[2 * random.nextInt(6)];
+      for (int e = 0; e < envelopes.length; e += 2) {
+        // Half of the envelopes at a corner or on a border
+        envelopes[e] = random.nextBoolean() ? 1 + random.nextInt(wDim) : (random.nextBoolean() ? 1 : wDim);
+        envelopes[e + 1] = random.nextBoolean() ? 1 + random.nextInt(wDim) : (random.nextBoolean() ? 1 : wDim);
+      }
+      EnvelopeWorldEnv envAgent = new EnvelopeWorldEnv(new WorldFile(wDim, envelopes, new int[0], new ArrayList<>()));
+      for (int x = 1; x <= wDim; x++) {
+        for (int y = 1; y <= wDim; y++) {
+          assertEquals("world " + w + " at (" + x + "," + y + ")",
+                       bruteForceReading(wDim, envelopes, x, y), envAgent.metalSensorReading(x, y));
+        }
+      }
+    }
+  }
+
+  /**
+  * Random world with distinct envelopes and steps at random positions
+  *
+  * @param random source of the positions
+  * @param wDim dimension of the world
+  * @param numEnvelopes number of envelopes, at most wDim * wDim
+  * @param numSteps number of steps
+  * @return the world, without states
+  **/
+  WorldFile randomWorld( Random random, int wDim, int numEnvelopes, int numSteps ) {
+    int[] envelopes = new int[2 * numEnvelopes];
+    boolean[] used = new boolean[wDim * wDim];
+    for (int e = 0; e < envelopes.length; e += 2) {
+      int cell = random.nextInt(wDim * wDim);
+      while (used[cell]) {
+        cell = random.nextInt(wDim * wDim);
+      }
+      used[cell] = true;
+      envelopes[e] = cell % wDim + 1;
+      envelopes[e + 1] = cell / wDim + 1;
+    }
+    int[] steps = new int[2 * numSteps];
+    for (int s = 0; s < steps.length; s++) {
+      steps[s] = 1 + random.nextInt(wDim);
+    }
+    return new WorldFile(wDim, envelopes, steps, new ArrayList<>());
+  }
+
+  /**
+  * Run several agents over a world, checking after every step that all of
+  * them are in the same state and that no envelope position is crossed.
+  *
+  * @param name name of the world, for the errors
+  * @param world the world
+  * @param agents the agents, already configured
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if the solver does not finish in time.
+  **/
+  void assertSameStates( String name, WorldFile world, EnvelopeFinder... agents )
+       throws   IOException,  ContradictionException, TimeoutException {
+    for (EnvelopeFinder eAgent : agents) {
+      eAgent.setEnvironment(new EnvelopeWorldEnv(world));
+      eAgent.loadListOfSteps(world);
+    }
+    for (int step = 1; step <= world.numSteps(); step++) {
+      for (EnvelopeFinder eAgent : agents) {
+        eAgent.runNextStep();
+        assertEquals(name + " step " + step, agents[0].getState(), eAgent.getState());
+      }
+      for (int e = 0; e < world.envelopes.length; e += 2) {
+        assertFalse(name + " step " + step + " crossed the envelope at (" + world.envelopes[e] + ","
+                    + world.envelopes[e + 1] + ")", agents[0].getState().isCrossed(world.envelopes[e], world.envelopes[e + 1]));
+      }
+    }
+  }
+
+  /**
+  * Tests that the agents never cross the position of an envelope, also
+  * when only one position is left without a past clause, with the SAT
+  * solver, the propagation engine and the lazy detector variables.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if the solver does not finish in time.
+  **/
+  @Test public void EFinderEnvelopeNeverCrossedTest()   throws IOException,  ContradictionException, TimeoutException {
+    List<WorldFile> worlds = new ArrayList<>();
+    worlds.add(new WorldFile(3, new int[] { 2, 1 }, new int[] { 2, 2, 1, 3 }, new ArrayList<>()));
+    worlds.add(new WorldFile(3, new int[] { 3, 1 }, new int[] { 2, 2, 3, 2, 3, 3, 3, 1 }, new ArrayList<>()));
+    Random random = new Random(23);
+    for (int w = 0; w < 150; w++) {
+      int wDim = 2 + random.nextInt(6);
+      worlds.add(randomWorld(random, wDim, 1 + random.nextInt(3), 1 + random.nextInt(2 * wDim)));
+    }
+    for (int w = 0; w < worlds.size(); w++) {
+      int wDim = worlds.get(w).worldDim;
+      assertSameStates("world " + w, worlds.get(w), new EnvelopeFinder(wDim), new EnvelopeFinder(wDim, true),
+                       new EnvelopeFinder(wDim, false, true));
+    }
+  }
+
+  /**
+  * Pins the meaning of the good clauses of Gamma on the plain sequential
+  * agent: a position without envelope in the past has no envelope in the
+  * future, but an envelope can stay at the same position, so a position
+  * marked "X" stays "X" and the agent does not mark every position when
+  * only one is left.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if the solver does not finish in time.
+  **/
+  @Test public void EFinderGoodClausesTest()   throws IOException,  ContradictionException, TimeoutException {
+    EnvelopeFinder eAgent = new EnvelopeFinder(3);
+    int past = eAgent.coordToLineal(2, 1, eAgent.EnvelopePastOffset);
+    int future = eAgent.coordToLineal(2, 1, eAgent.EnvelopeFutureOffset);
+    assertFalse(eAgent.solver.isSatisfiable(new VecInt(new int[] { -past, future })));
+    assertTrue(eAgent.solver.isSatisfiable(new VecInt(new int[] { past, future })));
+    // The first reading blocks every position but the envelope, and the second one keeps the state
+    WorldFile world = new WorldFile(3, new int[] { 2, 1 }, new int[] { 2, 2, 1, 3 }, new ArrayList<>());
+    eAgent.setEnvironment(new EnvelopeWorldEnv(world));
+    eAgent.loadListOfSteps(world);
+    for (int step = 1; step <= world.numSteps(); step++) {
+      eAgent.runNextStep();
+      for (int x = 1; x <= 3; x++) {
+        for (int y = 1; y <= 3; y++) {
+          assertEquals("step " + step + " (" + x + "," + y + ")", x != 2 || y != 1, eAgent.getState().isCrossed(x, y));
+        }
+      }
+    }
+    Random random = new Random(31);
+    for (int w = 0; w < 50; w++) {
+      int wDim = 2 + random.nextInt(6);
+      world = randomWorld(random, wDim, 1 + random.nextInt(3), 1 + random.nextInt(2 * wDim));
+      eAgent = new EnvelopeFinder(wDim);
+      eAgent.setEnvironment(new EnvelopeWorldEnv(world));
+      eAgent.loadListOfSteps(world);
+      boolean[][] crossed = new boolean[wDim + 1][wDim + 1];
+      for (int step = 1; step <= world.numSteps(); step++) {
+        eAgent.runNextStep();
+        for (int x = 1; x <= wDim; x++) {
+          for (int y = 1; y <= wDim; y++) {
+            assertTrue("world " + w + " step " + step + " (" + x + "," + y + ")",
+                       !crossed[x][y] || eAgent.getState().isCrossed(x, y));
+            crossed[x][y] = eAgent.getState().isCrossed(x, y);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+  * Tests the output levels and the names of the eworld.log property,
+  * where an unknown name gives the default level instead of an error.
+  **/
+  @Test public void AgentLogLevelTest() {
+    assertEquals(AgentLog.Level.TRACE, AgentLog.parseLevel(null));
+    assertEquals(AgentLog.Level.SILENT, AgentLog.parseLevel("silent"));
+    assertEquals(AgentLog.Level.SUMMARY, AgentLog.parseLevel(" Summary "));
+    assertEquals(AgentLog.Level.TRACE, AgentLog.parseLevel("TRACE"));
+    assertEquals(AgentLog.Level.TRACE, AgentLog.parseLevel("sumary"));
+    AgentLog.Level previous = AgentLog.getLevel();
+    try {
+      AgentLog.setLevel(AgentLog.Level.SUMMARY);
+      assertTrue(AgentLog.isEnabled(AgentLog.Level.SUMMARY));
+      assertFalse(AgentLog.isEnabled(AgentLog.Level.TRACE));
+      AgentLog.setLevel(AgentLog.Level.SILENT);
+      assertFalse(AgentLog.isEnabled(AgentLog.Level.SUMMARY));
+      assertFalse(AgentLog.isEnabled(AgentLog.Level.SILENT));
+      AgentLog.setLevel(AgentLog.Level.TRACE);
+      assertTrue(AgentLog.isEnabled(AgentLog.Level.TRACE));
+    } finally {
+      AgentLog.setLevel(previous);
+    }
+  }
+
+  /**
+  * Tests that the asynchronous sink writes all the lines queued before it
+  * is stopped, in order, and that flush does not wait for a sink whose
+  * thread has ended.
+  *
+  * @throws InterruptedException if the test is interrupted while waiting.
+  **/
+  @Test(timeout = 10000) public void AgentLogAsyncSinkTest() throws InterruptedException {
+    PrintStream console = System.out;
+    ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    AgentLog.AsyncSink sink = new AgentLog.AsyncSink();
+    Thread writer = new Thread(sink);
+    System.setOut(new PrintStream(captured, true));
+    try {
+      writer.start();
+      for (int line = 0; line < 1000; line++) {
+        sink.add("line " + line);
+      }
+      sink.stop();
+      writer.join();
+    } finally {
+      System.setOut(console);
+    }
+    String[] lines = captured.toString().split(System.lineSeparator());
+    assertEquals(1000, lines.length);
+    for (int line = 0; line < 1000; line++) {
+      assertEquals("line " + line, lines[line]);
+    }
+    // The thread has ended, so these lines are never written
+    sink.add("lost");
+    sink.flush();
+    assertFalse(sink.alive);
+  }
+
+  /**
+  * Tests that the error lines go to System.err after the lines queued
+  * before them, and the other lines to System.out, also when the
+  * asynchronous sink is selected again.
+  **/
+  @Test(timeout = 10000) public void AgentLogErrorTest() {
+    PrintStream console = System.out;
+    PrintStream errors = System.err;
+    ByteArrayOutputStream capturedOut = new ByteArrayOutputStream();
+    ByteArrayOutputStream capturedErr = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(capturedOut, true));
+    System.setErr(new PrintStream(capturedErr, true));
+    try {
+      AgentLog.setAsync(true);
+      AgentLog.setAsync(false);
+      AgentLog.setAsync(true);
+      AgentLog.println("line");
+      AgentLog.error("failed");
+      assertEquals("line" + System.lineSeparator(), capturedOut.toString());
+      assertEquals("failed" + System.lineSeparator(), capturedErr.toString());
+    } finally {
+      AgentLog.setAsync(false);
+      System.setOut(console);
+      System.setErr(errors);
+    }
+  }
+
+  /**
+  * Check that a typed message is converted to the AMessage that the
+  * original agent and environment exchanged, and back.
+  **/
+  static void assertProtocol(WorldMessage message, String... components) {
+    AMessage legacy = message.toAMessage();
+    for (int c = 0; c < 4; c++) {
+      assertEquals(components[c], legacy.getComp(c));
+    }
+    WorldMessage parsed = WorldMessage.fromAMessage(new AMessage(components[0], components[1],
+                                                                 components[2], components[3]));
+    assertEquals(message.type, parsed.type);
+    if (message.type != WorldMessage.Type.VOIDMSG && message.type != WorldMessage.Type.NOMESSAGE) {
+      assertEquals(message.x, parsed.x);
+      assertEquals(message.y, parsed.y);
+      assertEquals(message.value, parsed.value);
+    }
+  }
+
+  /**
+  * Tests the string form of every message type against the AMessage
+  * components built by the original code, the answers of the environment
+  * to the original messages, and that malformed messages and answers that
+  * are not detections are rejected.
+  *
+  * @throws IOException Signals that an I/O exception of some sort has occurred.
+  * @throws ContradictionException if inserting contradictory information to solver.
+  * @throws TimeoutException if the solver does not finish in time.
+  **/
+  @Test public void WorldMessageProtocolTest()   throws IOException,  ContradictionException, TimeoutException {
+    assertProtocol(new WorldMessage(WorldMessage.Type.MOVETO, 3, 12, 0), "moveto", "3", "12", "");
+    assertProtocol(new WorldMessage(WorldMessage.Type.MOVEDTO, 3, 12, 0), "movedto", "3", "12", "0");
+    assertProtocol(new WorldMessage(WorldMessage.Type.NOTMOVEDTO, 8, 2, 0), "notmovedto", "8", "2", "");
+    assertProtocol(new WorldMessage(WorldMessage.Type.DETECTSAT, 4, 5, 0), "detectsat", "4", "5", "");
+    assertProtocol(WorldMessage.VOID, "voidmsg", "", "", "");
+    assertProtocol(WorldMessage.NONE, "NOMESSAGE", "", "", "");
+    for (int mask = 0; mask < 32; mask++) {
+      // The original environment concatenated "k," for every active detector, in order
+      String detectors = "";
+      for (int k = 1; k <= 5; k++) {
+        detectors += (mask & (1 << (k - 1))) != 0 ? k + "," : "";
+      }
+      assertProtocol(new WorldMessage(WorldMessage.Type.DETECTED, 2, 7, mask), detectors, "2", "7", "");
+    }
+
+    int[] envelopes = PositionFile.readPairs("tests/envelopes4.txt");
+    EnvelopeWorldEnv envAgent = new EnvelopeWorldEnv(7, "tests/envelopes4.txt");
+    for (int x = 1; x <= 7; x++) {
+      for (int y = 1; y <= 7; y++) {
+        AMessage ans = envAgent.acceptMessage(new AMessage("detectsat", "" + x, "" + y, ""));
+        assertEquals(WorldMessage.maskToString(bruteForceReading(7, envelopes, x, y)), ans.getComp(0));
+        assertEquals("" + x, ans.getComp(1));
+        assertEquals("" + y, ans.getComp(2));
+      }
+    }
+    AMessage moved = envAgent.acceptMessage(new AMessage("moveto", "3", "2", ""));
+    assertEquals("movedto 3 2 0", moved.getComp(0) + " " + moved.getComp(1) + " " + moved.getComp(2) + " " + moved.getComp(3));
+    assertEquals("notmovedto", envAgent.acceptMessage(new AMessage("moveto", "8", "2", "")).getComp(0));
+    assertEquals("voidmsg", envAgent.acceptMessage(new AMessage("hello", "1", "1", "")).getComp(0));
+
+    String[][] malformed = { {"moveto", "a", "2", ""}, {"detectsat", "1", "", ""}, {"movedto", "1", "2", ""} };
+    for (String[] components : malformed) {
+      try {
+        WorldMessage.fromAMessage(new AMessage(components[0], components[1], components[2], components[3]));
+        fail("Malformed message accepted: " + String.join(" ", components));
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+    }
+    EnvelopeFinder eAgent = new EnvelopeFinder(7);
+    WorldMessage[] notDetections = { WorldMessage.NONE, WorldMessage.VOID,
+                                     new WorldMessage(WorldMessage.Type.MOVEDTO, 2, 2, 0),
+                                     new WorldMessage(WorldMessage.Type.DETECTED, 0, 0, 0),
+                                     new WorldMessage(WorldMessage.Type.DETECTED, 8, 1, 0) };
+    for (WorldMessage message : notDetections) {
+      try {
+        eAgent.processDetectorSensorAnswer(message);
+        fail("Answer accepted as a detection: " + message.type + " " + message.x + " " + message.y);
+      } catch (IllegalArgumentException ex) {
+        // expected
+      }
+    }
+  }
 }